@@ -57,6 +57,38 @@
 						<option selected value=30>30</option>
 					</select>
 					<p/>
+					
+					<p>
+					Word Counting:
+					<select name="optionsCounting">
+						<option selected value=1>Exact</option>
+						<option value=2>Approximate (Fixed memory, for large crawls)</option>
+					</select>
+					<p/>
+					
+					<p>
+					Word Placement:
+					<select name="optionsPlacement">
+						<option selected value=1>Bounding Box</option>
+						<option value=2>Glyph Mask (Tighter, for dense clouds)</option>
+					</select>
+					<p/>
+					
+					<p>
+					Word Cloud Output:
+					<select name="optionsOutput">
+						<option selected value=1>PNG</option>
+						<option value=2>SVG (Smaller, no image encoding)</option>
+					</select>
+					<p/>
+					
+					<p>
+					Search Threads:
+					<select name="optionsThreads">
+						<option selected value=1>Platform</option>
+						<option value=2>Virtual (Java 21+, for many users)</option>
+					</select>
+					<p/>
 
 					<b>Enter Text (Query):</b><br>
 					<input name="query" size="100">	
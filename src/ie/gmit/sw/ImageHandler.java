@@ -0,0 +1,53 @@
+package ie.gmit.sw;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import ie.gmit.sw.ai.cloud.ImageCache;
+
+/**
+* Serves the word cloud images stored in the ImageCache by the ServiceHandler, e.g. /cloud?id=...
+*
+* The id is a hash of the PNG, so the image for an id never changes. It's sent with a strong ETag and can be cached by
+* the browser and any proxy for a day, and a browser that asks again with If-None-Match gets a 304 with no body.
+*
+* @see ImageCache
+* @see ServiceHandler
+* @author Matthew Sloyan
+*/
+public class ImageHandler extends HttpServlet {
+
+	private static final String CACHE_CONTROL = "public, max-age=86400, immutable";
+
+	public void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		String id = req.getParameter("id");
+		byte[] png = id == null ? null : ImageCache.getInstance().get(id);
+
+		if (png == null) {
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Word cloud not found, please search again.");
+			return;
+		}
+
+		String etag = "\"" + id + "\"";
+		resp.setHeader("ETag", etag);
+		resp.setHeader("Cache-Control", CACHE_CONTROL);
+
+		// The browser already has this image.
+		String match = req.getHeader("If-None-Match");
+		if (match != null && (match.contains(etag) || match.trim().equals("*"))) {
+			resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		resp.setContentType("image/png");
+		resp.setContentLength(png.length);
+		OutputStream out = resp.getOutputStream();
+		out.write(png);
+		out.flush();
+	}
+}
@@ -6,19 +6,29 @@ import javax.servlet.http.*;
 
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import javax.imageio.ImageIO;
 
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
 
+import ie.gmit.sw.ai.cloud.ImageCache;
 import ie.gmit.sw.ai.cloud.LogarithmicSpiralPlacer;
+import ie.gmit.sw.ai.cloud.SvgWriter;
 import ie.gmit.sw.ai.cloud.WeightedFont;
 import ie.gmit.sw.ai.cloud.WordFrequency;
+import ie.gmit.sw.ai.search.CrawlScheduler;
+import ie.gmit.sw.ai.search.CrawlThreads;
 import ie.gmit.sw.ai.search.NodeParser;
+import ie.gmit.sw.ai.search.database.IgnoreWords;
+import ie.gmit.sw.ai.search.database.ResultStore;
+import ie.gmit.sw.ai.search.fetch.PageCache;
+import ie.gmit.sw.ai.search.heuristics.HeuristicCache;
+import ie.gmit.sw.ai.search.heuristics.ModelRegistry;
 import ie.gmit.sw.ai.search.models.Files;
 import ie.gmit.sw.ai.search.models.Options;
+import ie.gmit.sw.ai.search.pipeline.PagePipeline;
+import ie.gmit.sw.ai.search.pipeline.Stage;
 
 /*
  * -------------------------------------------------------------------------------------------------------------------
@@ -62,7 +72,29 @@ public class ServiceHandler extends HttpServlet {
 		String customNN = getServletContext().getRealPath(File.separator) + ctx.getInitParameter("NN_FILE_LOCATION");
 		fileNames.add(customNN);
 		
+		String resultStore = getDataPath(ctx, "RESULT_STORE_LOCATION");
+		fileNames.add(resultStore);
+		
+		String pageCache = getDataPath(ctx, "PAGE_CACHE_LOCATION");
+		fileNames.add(pageCache);
+		
 		Files.getInstance().setFileNames(fileNames);
+		
+		// Load the trained models once, rather than on every page scored.
+		ModelRegistry.getInstance().init();
+		
+		// Load the ignore words once, rather than for every request.
+		IgnoreWords.getInstance().init();
+		
+		// Index the results stored by earlier runs, so repeated queries don't search again.
+		ResultStore.getInstance().init();
+		
+		// Open the cache of downloaded pages, offline only uses pages already in it.
+		PageCache.getInstance().init(Boolean.parseBoolean(ctx.getInitParameter("PAGE_CACHE_OFFLINE")));
+		
+		// Share a fixed number of search workers between every request.
+		CrawlScheduler.getInstance().init(getIntParameter(ctx, "CRAWL_WORKERS"), getIntParameter(ctx, "CRAWL_VIRTUAL_WORKERS"),
+				getIntParameter(ctx, "CRAWL_REQUEST_WORKERS"), getIntParameter(ctx, "CRAWL_MAX_REQUESTS"));
 	}
 
 	public void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
@@ -75,19 +107,36 @@ public class ServiceHandler extends HttpServlet {
 		int optionScoring = Integer.parseInt(req.getParameter("optionsScoring")); 
 		int optionGoal = Integer.parseInt(req.getParameter("optionsGoal")); 
 		int optionWcNum = Integer.parseInt(req.getParameter("optionsWcNum")); 
+		
+		// Added since the first version of the form, so links and old forms without them get the original behaviour.
+		int optionCounting = getIntParameter(req, "optionsCounting", 1); 
+		int optionPlacement = getIntParameter(req, "optionsPlacement", 1); 
+		int optionOutput = getIntParameter(req, "optionsOutput", 1); 
+		int optionThreads = getIntParameter(req, "optionsThreads", 1); 
 		String s = req.getParameter("query");
 		
 		// == OPTIONS ==
 		Options options = new Options(optionSearch, optionHeuristic, optionScoring, optionGoal, optionWcNum);
+		options.setCounting(optionCounting);
+		options.setPlacement(optionPlacement);
+		options.setOutput(optionOutput);
+		options.setThreads(optionThreads);
 		
 		long startTime = System.nanoTime();
 		
 		// == SEARCH ==
 		WordFrequency[] words = null;
+		boolean busy = false;
 		try {
 			words = new WeightedFont().getFontSizes(getWordFrequencyKeyValue(s, options));
 			//Arrays.sort(words, Comparator.comparing(WordFrequency::getFrequency, Comparator.reverseOrder()));
 			//Arrays.stream(words).forEach(System.out::println);
+		} catch (CrawlScheduler.BusyException e) {
+			// Too many requests crawling, tell the user straight away rather than queue them.
+			busy = true;
+			resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			resp.setHeader("Retry-After", "30");
+			System.out.println("Server busy, search turned away");
 		} catch (Exception e) {
 			System.out.println("Couldn't find suitable results");
 		}
@@ -104,23 +153,35 @@ public class ServiceHandler extends HttpServlet {
 		out.print("<body>");		
 		out.print("<div style=\"font-size:48pt; font-family:arial; color:#990000; font-weight:bold\">Web Opinion Visualiser</div>");
 		
-		// Handle if no results are found.
+		// Handle if the server is busy or no results are found.
 		// Else create word cloud.
-		if (words == null) {
+		if (busy) {
+			out.print("<h2>The server is busy with other searches, please try again in a minute.</h2>");
+		}
+		else if (words == null) {
 			out.print("<h2>Couldn't find suitable results for your query or you have been locked out of DuckDuckGo, please try again.</h2>");
 		}
 		else {
 			out.print("<p><fieldset><legend><h3>Result</h3></legend>");
 			
 			//Spira Mirabilis
-			LogarithmicSpiralPlacer placer = new LogarithmicSpiralPlacer(800, 600);
+			LogarithmicSpiralPlacer placer = new LogarithmicSpiralPlacer(800, 600, options.getPlacement());
 			
 			for (WordFrequency word : words) {
 				placer.place(word); //Place each word on the canvas starting with the largest
 			}
 
-			BufferedImage cloud = placer.getImage(); //Get a handle on the word cloud graphic
-			out.print("<img src=\"data:image/png;base64," + encodeToString(cloud) + "\" alt=\"Word Cloud\">");
+			if (options.getOutput() == 2) {
+				// Write the words straight to the page as SVG, no image to draw or encode.
+				new SvgWriter().write(placer.getPlacedWords(), placer.getWidth(), placer.getHeight(), out);
+			}
+			else {
+				BufferedImage cloud = placer.getImage(); //Get a handle on the word cloud graphic
+				
+				// Store the PNG and link to it, so the browser can cache it rather than it being base64 encoded into the page.
+				out.print("<img src=\"cloud?id=" + ImageCache.getInstance().put(cloud) + "\" width=\"" + placer.getWidth()
+						+ "\" height=\"" + placer.getHeight() + "\" alt=\"Word Cloud\">");
+			}
 			
 			out.print("</fieldset>");	
 			out.print("<p>Branching factor = 12<p>");
@@ -132,6 +193,23 @@ public class ServiceHandler extends HttpServlet {
 			out.print("<p>Scoring: " + optionScoring + " (1 = Frequency, 2 = Levenshtein)<p>");
 			out.print("<p>Goal: " + optionGoal + " (1 = Max Words, 2 = Max Nodes)<p>");
 			out.print("<p>Word Cloud Number: " + optionWcNum + "<p>");
+			out.print("<p>Counting: " + optionCounting + " (1 = Exact, 2 = Approximate)<p>");
+			out.print("<p>Placement: " + optionPlacement + " (1 = Bounding Box, 2 = Glyph Mask)<p>");
+			out.print("<p>Output: " + optionOutput + " (1 = PNG, 2 = SVG)<p>");
+			out.print("<p>Threads: " + optionThreads + " (1 = Platform, 2 = Virtual" + (CrawlThreads.getInstance().hasVirtualThreads() ? "" : ", not supported by this Java so Platform was used") + ")<p>");
+			
+			// Model versions and load times, so it's clear which retrained model was used.
+			for (ModelRegistry.Model<?> model : ModelRegistry.getInstance().getModels()) {
+				out.print("<p>Model: " + model + "<p>");
+			}
+			out.print("<p>Heuristic cache: " + HeuristicCache.getInstance() + "<p>");
+			out.print("<p>Crawl scheduler: " + CrawlScheduler.getInstance() + "<p>");
+			out.print("<p>Page cache: " + PageCache.getInstance() + "<p>");
+			
+			// Queue depth and latency of each stage pages go through.
+			for (Stage<?> stage : PagePipeline.getInstance().getStages()) {
+				out.print("<p>Pipeline: " + stage + "<p>");
+			}
 
 		}
 
@@ -145,32 +223,46 @@ public class ServiceHandler extends HttpServlet {
  	}
 
 	// Starts search and returns results as WordFrequency Array.
-	private WordFrequency[] getWordFrequencyKeyValue(String query, Options options) {
+	private WordFrequency[] getWordFrequencyKeyValue(String query, Options options) throws CrawlScheduler.BusyException {
 		try {
 			// Start search and get results.
 			NodeParser n = new NodeParser("https://duckduckgo.com/html/?q=" + query, query, options);
 			
 			return n.getResults();
+		} catch (CrawlScheduler.BusyException e) {
+			throw e;
 		} catch (Exception e) {
 			return null;
 		}
 	}
 	
-	private String encodeToString(BufferedImage image) {
-	    String s = null;
-	    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-
-	    try {
-	        ImageIO.write(image, "png", bos);
-	        byte[] bytes = bos.toByteArray();
-
-	        Base64.Encoder encoder = Base64.getEncoder();
-	        s = encoder.encodeToString(bytes);
-	        bos.close();
-	    } catch (IOException e) {
-	        e.printStackTrace();
-	    }
-	    return s;
+	// Reads a directory written to at runtime from a <context-param> in web.xml. These are kept out of the web root,
+	// where Tomcat would serve them to anyone and wipe them on redeploy. An absolute path is used as it is, otherwise
+	// it's in the container's private temp dir.
+	private String getDataPath(ServletContext ctx, String name) {
+		File dir = new File(ctx.getInitParameter(name));
+		if (!dir.isAbsolute()) {
+			dir = new File((File) ctx.getAttribute(ServletContext.TEMPDIR), dir.getPath());
+		}
+		return dir.getPath();
+	}
+	
+	// Reads a number from a <context-param> in web.xml, 0 if it's not set.
+	private int getIntParameter(ServletContext ctx, String name) {
+		try {
+			return Integer.parseInt(ctx.getInitParameter(name).trim());
+		} catch (Exception e) {
+			return 0;
+		}
+	}
+	
+	// Reads a number from a form parameter, the default if it's missing or not a number.
+	private int getIntParameter(HttpServletRequest req, String name, int defaultValue) {
+		try {
+			return Integer.parseInt(req.getParameter(name).trim());
+		} catch (Exception e) {
+			return defaultValue;
+		}
 	}
 	
 	private BufferedImage decodeToImage(String imageString) {
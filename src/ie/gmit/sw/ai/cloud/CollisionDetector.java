@@ -9,10 +9,17 @@ public class CollisionDetector {
 	 */
 	public boolean collides(Rectangle word, List<Rectangle> existing) {
 		for (Rectangle rectangle : existing) {
-			if (word.intersects(rectangle) || word.contains(rectangle) || rectangle.contains(word)) {
+			if (collides(word, rectangle)) {
 				return true;
 			}
 		}
 		return false;
 	}
+	
+	/*
+	 * Checks if the rectangle around the new word overlaps one placed rectangle.
+	 */
+	public boolean collides(Rectangle word, Rectangle rectangle) {
+		return word.intersects(rectangle) || word.contains(rectangle) || rectangle.contains(word);
+	}
 }
\ No newline at end of file
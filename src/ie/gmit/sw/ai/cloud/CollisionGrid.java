@@ -0,0 +1,104 @@
+package ie.gmit.sw.ai.cloud;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+* Uniform grid over the canvas that holds the rectangles of the words placed so far, used by the LogarithmicSpiralPlacer
+* to find collisions.
+*
+* Previously every step along the spiral checked the word against every word already placed, so placing a cloud was
+* O(words x steps x placed). Instead each placed rectangle is added to every CELL_SIZE cell it touches, and a collision
+* check only looks at the rectangles in the cells the word touches, which is a handful rather than all of them.
+*
+* Each rectangle is added to every cell its edges touch, so any two rectangles that share a point share a cell, and the
+* same CollisionDetector check is used on each one found. So the result is always the same as checking the whole list,
+* and the words are placed in exactly the same places as before. Rectangles off the canvas are added to the nearest
+* edge cells, which keeps this true for words the spiral has pushed past the edge.
+*
+* @see LogarithmicSpiralPlacer
+* @see CollisionDetector
+* @author Matthew Sloyan
+*/
+public class CollisionGrid {
+
+	private static final int CELL_SIZE = 64;
+
+	private final CollisionDetector detector = new CollisionDetector();
+	private final List<Rectangle> placed = new ArrayList<>();
+
+	private final int columns;
+	private final int rows;
+
+	// Indexes of the rectangles in each cell, and how many are in it.
+	private final int[][] cells;
+	private final int[] sizes;
+
+	// Last check each rectangle was tested in, so one in many cells is only tested once per check.
+	private int[] checked = new int[64];
+	private int check;
+
+	public CollisionGrid(int width, int height) {
+		this.columns = Math.max(1, (width + CELL_SIZE - 1) / CELL_SIZE);
+		this.rows = Math.max(1, (height + CELL_SIZE - 1) / CELL_SIZE);
+		this.cells = new int[columns * rows][];
+		this.sizes = new int[columns * rows];
+	}
+
+	/**
+	* Adds a placed word.
+	*/
+	public void add(Rectangle word) {
+		int index = placed.size();
+		placed.add(word);
+		if (index == checked.length) {
+			checked = Arrays.copyOf(checked, index * 2);
+		}
+
+		for (int row = row(word.y); row <= row(word.y + word.height); row++) {
+			for (int column = column(word.x); column <= column(word.x + word.width); column++) {
+				int cell = row * columns + column;
+				if (cells[cell] == null) {
+					cells[cell] = new int[8];
+				}
+				else if (sizes[cell] == cells[cell].length) {
+					cells[cell] = Arrays.copyOf(cells[cell], sizes[cell] * 2);
+				}
+				cells[cell][sizes[cell]++] = index;
+			}
+		}
+	}
+
+	/**
+	* Checks if a word overlaps any of the words already placed.
+	*/
+	public boolean collides(Rectangle word) {
+		check++;
+		for (int row = row(word.y); row <= row(word.y + word.height); row++) {
+			for (int column = column(word.x); column <= column(word.x + word.width); column++) {
+				int cell = row * columns + column;
+				for (int i = 0; i < sizes[cell]; i++) {
+					int index = cells[cell][i];
+					if (checked[index] != check) {
+						checked[index] = check;
+						if (detector.collides(word, placed.get(index))) {
+							return true;
+						}
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	// Cell of a coordinate, clamped to the grid.
+	private int column(int x) {
+		return Math.min(columns - 1, Math.max(0, Math.floorDiv(x, CELL_SIZE)));
+	}
+
+	private int row(int y) {
+		return Math.min(rows - 1, Math.max(0, Math.floorDiv(y, CELL_SIZE)));
+	}
+}
@@ -0,0 +1,143 @@
+package ie.gmit.sw.ai.cloud;
+
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+* Cache of the fonts used in the word cloud and the size of each word drawn in them, shared by every request.
+*
+* Previously the LogarithmicSpiralPlacer created a new Font and asked the FontMetrics for the bounds of every word,
+* which lays out the glyphs each time. The word cloud only ever uses one font face in a few dozen sizes, and the same
+* words come up again and again in the top words, so each Font is made once, and the size of each (word, font size)
+* is worked out once and kept.
+*
+* The sizes depend on how the canvas draws text, which is the same for every canvas (a BufferedImage with the default
+* hints), so they're worked out with the FontRenderContext of a canvas like it and shared across requests.
+*
+* To keep memory bounded the layouts are cleared once there are MAX_LAYOUTS of them, as the common words soon come back.
+*
+* I have implemented a Singleton design pattern for this as with the HeuristicCache, so every request shares the same cache.
+*
+* @see LogarithmicSpiralPlacer
+* @author Matthew Sloyan
+*/
+public class FontCache {
+
+	private static final String FONT_NAME = "Tahoma";
+	private static final int MAX_LAYOUTS = 16384;
+
+	// Singleton design pattern.
+	private static FontCache instance = new FontCache();
+
+	private final AtomicReferenceArray<Font> fonts = new AtomicReferenceArray<>(256); // By size.
+	private final ConcurrentMap<String, Layout> layouts = new ConcurrentHashMap<>();
+
+	// How the canvas draws text, the same for every canvas. This can't be changed, so it's shared by every thread.
+	private final FontRenderContext context;
+
+	// private constructor, so no other class can create an instance.
+	private FontCache() {
+		Graphics2D g = new BufferedImage(1, 1, BufferedImage.TYPE_4BYTE_ABGR).createGraphics();
+		context = g.getFontRenderContext();
+		g.dispose();
+	}
+
+	public static FontCache getInstance() {
+		return instance;
+	}
+
+	/**
+	* Gets the word cloud font in a size. Fonts can't be changed, so the same one is shared.
+	*/
+	public Font getFont(int size) {
+		if (size < 0 || size >= fonts.length()) {
+			return new Font(FONT_NAME, 0, size);
+		}
+
+		Font font = fonts.get(size);
+		if (font == null) {
+			// Two threads may both create it, the first one set is kept.
+			fonts.compareAndSet(size, null, new Font(FONT_NAME, 0, size));
+			font = fonts.get(size);
+		}
+		return font;
+	}
+
+	/**
+	* Gets the size of a word drawn in the word cloud font.
+	*
+	* @param word word to draw.
+	* @param size font size.
+	*/
+	public Layout getLayout(String word, int size) {
+		String key = size + " " + word;
+		Layout layout = layouts.get(key);
+		if (layout != null) {
+			return layout;
+		}
+
+		Font font = getFont(size);
+		layout = new Layout(word, font, font.getStringBounds(word, context));
+
+		if (layouts.size() >= MAX_LAYOUTS) {
+			layouts.clear();
+		}
+		layouts.put(key, layout);
+		return layout;
+	}
+
+	/**
+	* The size of a word in a font, as used by the placer. Also holds the word's GlyphMask once it's needed.
+	*/
+	public static final class Layout {
+		private final String word;
+		private final Font font;
+		private final int width;
+		private final int height;
+		private final int rise; // Height of the box above the baseline.
+		private volatile GlyphMask mask;
+
+		private Layout(String word, Font font, Rectangle2D bounds) {
+			this.word = word;
+			this.font = font;
+			this.width = (int) bounds.getWidth();
+			this.height = (int) bounds.getHeight();
+			this.rise = (int) (bounds.getHeight() * 0.8d);
+		}
+
+		public Font getFont() {
+			return font;
+		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		public int getRise() {
+			return rise;
+		}
+
+		/**
+		* Gets the pixels of the word, which are only worked out the first time they're needed.
+		*/
+		public GlyphMask getMask() {
+			GlyphMask m = mask;
+			if (m == null) {
+				// Two threads may both make it, they'll be the same.
+				m = new GlyphMask(word, font);
+				mask = m;
+			}
+			return m;
+		}
+	}
+}
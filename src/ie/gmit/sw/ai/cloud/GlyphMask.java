@@ -0,0 +1,124 @@
+package ie.gmit.sw.ai.cloud;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+
+/**
+* The shape of a word drawn in a font, as a bit-packed mask with one bit per pixel, used by the OccupancyMask.
+*
+* The word is drawn once into a small image the same way it's drawn on the canvas, and each row of pixels is packed
+* into longs, 64 pixels each (bit 0 is the leftmost pixel). The mask is grown by PADDING pixels on every side so
+* words placed with it never quite touch.
+*
+* The mask is positioned from the point the word is drawn at (the start of its baseline), so left and top are
+* usually 0 or less.
+*
+* @see OccupancyMask
+* @see LogarithmicSpiralPlacer
+* @author Matthew Sloyan
+*/
+public class GlyphMask {
+
+	private static final int PADDING = 1;
+
+	private final int left; // Position of the mask from where the word is drawn.
+	private final int top;
+	private final int width;
+	private final int height;
+	private final int wordsPerRow;
+	private final long[] bits;
+
+	public GlyphMask(String word, Font font) {
+		// Size of the word, from a 1x1 image as the canvas size doesn't matter.
+		BufferedImage measure = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY);
+		Graphics2D g = measure.createGraphics();
+		Rectangle2D bounds = g.getFontMetrics(font).getStringBounds(word, g);
+		g.dispose();
+
+		// Some glyphs draw a little outside their bounds, so leave a pixel spare as well as the padding.
+		int spare = PADDING + 1;
+		left = (int) Math.floor(bounds.getX()) - spare;
+		top = (int) Math.floor(bounds.getY()) - spare;
+		width = (int) Math.ceil(bounds.getMaxX()) + spare - left;
+		height = (int) Math.ceil(bounds.getMaxY()) + spare - top;
+		wordsPerRow = (width + 63) >>> 6;
+
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+		g = image.createGraphics();
+		g.setColor(Color.WHITE);
+		g.setFont(font);
+		g.drawString(word, -left, -top);
+		g.dispose();
+
+		// One byte per pixel, row by row.
+		byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+		long[] drawn = new long[height * wordsPerRow];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				if (pixels[y * width + x] != 0) {
+					drawn[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+				}
+			}
+		}
+
+		bits = pad(drawn);
+	}
+
+	/**
+	* Grows the drawn pixels by PADDING in every direction.
+	*/
+	private long[] pad(long[] drawn) {
+		long[] padded = drawn;
+		for (int p = 0; p < PADDING; p++) {
+			long[] grown = new long[padded.length];
+			for (int y = 0; y < height; y++) {
+				for (int k = 0; k < wordsPerRow; k++) {
+					long b = 0;
+					for (int dy = Math.max(0, y - 1); dy <= Math.min(height - 1, y + 1); dy++) {
+						b |= padded[dy * wordsPerRow + k];
+					}
+					grown[y * wordsPerRow + k] |= b | (b << 1) | (b >>> 1);
+
+					// Pixels that move into the next or previous long.
+					if (k + 1 < wordsPerRow) {
+						grown[y * wordsPerRow + k + 1] |= b >>> 63;
+					}
+					if (k > 0) {
+						grown[y * wordsPerRow + k - 1] |= b << 63;
+					}
+				}
+			}
+			padded = grown;
+		}
+		return padded;
+	}
+
+	public int getLeft() {
+		return left;
+	}
+
+	public int getTop() {
+		return top;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	int getWordsPerRow() {
+		return wordsPerRow;
+	}
+
+	// Bits of a row, 64 pixels starting at pixel k * 64.
+	long getBits(int y, int k) {
+		return bits[y * wordsPerRow + k];
+	}
+}
@@ -0,0 +1,112 @@
+package ie.gmit.sw.ai.cloud;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+/**
+* Bounded in-memory cache of rendered word clouds as PNG bytes, served by the ImageHandler.
+*
+* Previously the PNG was base64 encoded into the page as a data URI, so it couldn't be cached by the browser or a proxy,
+* and each request held the PNG, then the base64 String, then the page. Instead the PNG bytes are stored here once, and
+* the page links to them by id.
+*
+* The id is a hash of the PNG bytes, so the same cloud always has the same id and an id always means the same image.
+* That makes the id a strong ETag and the image safe to cache for as long as the browser likes.
+*
+* The clouds are kept in least recently used order, and the oldest are removed once they take up more than MAX_BYTES.
+* If an image has been removed by the time it's asked for, the ImageHandler returns 404 and the search has to be run again.
+*
+* I have implemented a Singleton design pattern for this so the ImageHandler servlet can get the images stored by the
+* ServiceHandler.
+*
+* @see LogarithmicSpiralPlacer
+* @author Matthew Sloyan
+*/
+public class ImageCache {
+
+	// Most memory the images can use, 32MB (about 700 800x600 clouds).
+	public static final long MAX_BYTES = 32 * 1024 * 1024;
+
+	// Singleton design pattern.
+	private static ImageCache instance = new ImageCache();
+
+	// Access ordered, so the first entry is the least recently used.
+	private final LinkedHashMap<String, byte[]> images = new LinkedHashMap<>(64, 0.75f, true);
+	private long bytes;
+
+	// private constructor, so no other class can create an instance.
+	private ImageCache() {}
+
+	public static ImageCache getInstance() {
+		return instance;
+	}
+
+	/**
+	* Encodes a word cloud as a PNG and stores it.
+	*
+	* @return id of the image.
+	*/
+	public String put(BufferedImage image) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(64 * 1024);
+		ImageIO.write(image, "png", bos);
+		byte[] png = bos.toByteArray();
+		String id = getId(png);
+
+		synchronized (this) {
+			byte[] old = images.put(id, png);
+			if (old != null) {
+				bytes -= old.length;
+			}
+			bytes += png.length;
+
+			// Remove the least recently used images, always keeping the one just added.
+			Iterator<Map.Entry<String, byte[]>> it = images.entrySet().iterator();
+			while (bytes > MAX_BYTES && images.size() > 1) {
+				Map.Entry<String, byte[]> oldest = it.next();
+				bytes -= oldest.getValue().length;
+				it.remove();
+			}
+		}
+		return id;
+	}
+
+	/**
+	* Gets the PNG bytes of an image, which must not be changed.
+	*
+	* @return the PNG or null if there's no image with the id (never stored or removed).
+	*/
+	public synchronized byte[] get(String id) {
+		return images.get(id);
+	}
+
+	// First 128 bits of the SHA-256 of the PNG, in hex.
+	private static String getId(byte[] png) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(png);
+			StringBuilder sb = new StringBuilder(32);
+			for (int i = 0; i < 16; i++) {
+				sb.append(String.format("%02x", digest[i]));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public synchronized int size() {
+		return images.size();
+	}
+
+	public synchronized long getBytes() {
+		return bytes;
+	}
+}
@@ -1,27 +1,43 @@
 package ie.gmit.sw.ai.cloud;
 
 import java.awt.*;
-import java.awt.geom.*;
 import java.awt.image.*;
 import java.util.*;
 
 public class LogarithmicSpiralPlacer {
 	private Random rand = new Random(); //Random int generator for colours	
-	private Graphics g = null; //The "canvas" to draw the word cloud on
-	private BufferedImage img = null; //Rasterises the "canvas" to a PNG
-	private java.util.List<Rectangle> placed = new ArrayList<>(); //The list of placed words
-	private CollisionDetector detector = new CollisionDetector(); //Detects overlapping words
+	private BufferedImage img = null; //Rasterises the "canvas" to a PNG, only drawn if it's asked for
+	private java.util.List<PlacedWord> words = new ArrayList<>(); //Where each word was placed, so it can be drawn as a PNG or SVG
+	private CollisionGrid placed = null; //The placed words, indexed by where they are so only nearby words are checked
+	private OccupancyMask occupied = null; //The pixels used by placed words, only used when placing by glyph masks
+	private int placement = 1; //How words are checked for collisions (1 = Bounding box, 2 = Glyph mask)
 	private int width = 1600; //Image width. The bigger the canvas, the easier it is to place a word.
 	private int height = 1000; //Image height	
 	private int turn = 29; //The weight of the turn in the spiral
+	private SpiralTrajectory spiral = null; //The points along the spiral, shared by every placer with the same size and turn
 
 	public LogarithmicSpiralPlacer(int w, int h) {
+		this(w, h, 1);
+	}
+	
+	/*
+	 * Placement 1 checks the bounding box of each word against the boxes of the words already placed.
+	 * Placement 2 checks the pixels of each word's glyphs against the pixels already drawn, which lets words
+	 * fit into the gaps around other words, so dense clouds are tighter.
+	 */
+	public LogarithmicSpiralPlacer(int w, int h, int placement) {
 		this.width = w;
 		this.height = h;
-		img = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
-		g = img.getGraphics();
-		g.setColor(Color.BLACK);
-		g.fillRect(0, 0, width, height);
+		this.placement = placement;
+		
+		spiral = SpiralTrajectory.getInstance(width, height, turn);
+		
+		if (placement == 2) {
+			occupied = new OccupancyMask(width, height);
+		}
+		else {
+			placed = new CollisionGrid(width, height);
+		}
 	}
 	
 	/*
@@ -41,39 +57,75 @@ public class LogarithmicSpiralPlacer {
 	 *
 	 */
 	public void place(WordFrequency wf) {
-		int i = width / 2; //Get the horizontal centre
-		int j = height / 2; //Get the vertical centre
-		int k = 1; //Step to move along spiral
+		//The font with a size proportional to the word frequency and the "size" of the word, worked out once for each word and size
+		FontCache.Layout layout = FontCache.getInstance().getLayout(wf.getWord(), wf.getFontSize());
+		int colour = rand.nextInt(0xFFFFFF); //The colour of the graphics "brush"
 		
-		Font font = new Font("Tahoma", 0, wf.getFontSize()); //Create a font with a size proportional to the word frequency
-		g.setColor(new Color(rand.nextInt(0xFFFFFF))); //Set the colour of the graphics "brush"
-		g.setFont(font); //Set the font of the graphics "brush"
+		int[] xs = spiral.getXs(); //The points along the spiral, starting at the centre
+		int[] ys = spiral.getYs();
+		int k = 0; //Step along spiral
 		
-		//Get the "size" of the word string as a rectangle
-		Rectangle2D bounds = this.g.getFontMetrics(font).getStringBounds(wf.getWord(), g); 
+		if (placement == 2) {
+			//Move the word along the spiral until none of its pixels land on a pixel that's already been drawn
+			GlyphMask mask = layout.getMask();
+			while (occupied.collides(mask, xs[k], ys[k])) {
+				if (++k == xs.length) {
+					spiral.grow(k);
+					xs = spiral.getXs();
+					ys = spiral.getYs();
+				}
+			}
+			
+			words.add(new PlacedWord(wf.getWord(), xs[k], ys[k], wf.getFontSize(), layout.getWidth(), colour)); //Record where to draw the word
+			occupied.add(mask, xs[k], ys[k]); //Mark its pixels as used
+			return;
+		}
 		
 		//Start with the word placed at the centre of the spiral
-		Rectangle word = new Rectangle(i, j - (int) (bounds.getHeight() * 0.8d), (int) bounds.getWidth(), (int) bounds.getHeight()); 
+		Rectangle word = new Rectangle(xs[k], ys[k] - layout.getRise(), layout.getWidth(), layout.getHeight()); 
 		
 		//If the word collides with any existing words, move it along the spiral
-		while (detector.collides(word, placed)) { 
-			int l = k * turn % 360;
-			double d = k * 0.1d;
-			int x = (int) Math.round(i + d * Math.cos(l * Math.PI / 180.0d));
-			int y = (int) Math.round(j + d * Math.sin(l * Math.PI / 180.0d));
-			i = x;
-			j = y;
-			word = new Rectangle(i, j - (int) (bounds.getHeight() * 0.8d), (int) bounds.getWidth(), (int) bounds.getHeight());
-			k++;
+		while (placed.collides(word)) { 
+			if (++k == xs.length) {
+				spiral.grow(k);
+				xs = spiral.getXs();
+				ys = spiral.getYs();
+			}
+			word.setLocation(xs[k], ys[k] - layout.getRise());
 		}
 		 
-		g.drawString(wf.getWord(), i, j);//Draw the word on the graphics canvas 
+		words.add(new PlacedWord(wf.getWord(), xs[k], ys[k], wf.getFontSize(), layout.getWidth(), colour)); //Record where to draw the word
 		placed.add(word); //Add the word to the list of placed words
 	}
 	
-	//Clean up the graphics context (close streams). Can only be done once...
+	//Draw the placed words on the graphics canvas. Only done the first time it's asked for...
 	public BufferedImage getImage() {
-		g.dispose(); 
+		if (img == null) {
+			img = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+			Graphics g = img.getGraphics(); //The "canvas" to draw the word cloud on
+			g.setColor(Color.BLACK);
+			g.fillRect(0, 0, width, height);
+			
+			for (PlacedWord word : words) {
+				g.setColor(new Color(word.getColour())); //Set the colour of the graphics "brush"
+				g.setFont(FontCache.getInstance().getFont(word.getFontSize())); //Set the font of the graphics "brush"
+				g.drawString(word.getWord(), word.getX(), word.getY()); //Draw the word on the graphics canvas
+			}
+			g.dispose(); //Clean up the graphics context (close streams)
+		}
 		return img;
 	}
+	
+	//The words placed so far, in the order they were placed
+	public java.util.List<PlacedWord> getPlacedWords() {
+		return Collections.unmodifiableList(words);
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+	
+	public int getHeight() {
+		return height;
+	}
 }
\ No newline at end of file
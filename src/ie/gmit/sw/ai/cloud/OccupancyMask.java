@@ -0,0 +1,107 @@
+package ie.gmit.sw.ai.cloud;
+
+/**
+* Bit-packed map of the canvas pixels already used by placed words, used by the LogarithmicSpiralPlacer in glyph mask
+* placement mode.
+*
+* With bounding boxes a word can't go anywhere inside the box of another word, even in the space above a lower case
+* word or between the letters, so clouds are sparse and big words go a long way round the spiral. Instead each word's
+* GlyphMask is checked against the pixels actually drawn, so words can fit into each other's gaps.
+*
+* Each row of the canvas is packed into longs, 64 pixels each. A mask is checked by shifting each of its longs to
+* where it lands on the canvas and ANDing it with the two canvas longs it covers, so 64 pixels are checked at once,
+* and the check stops at the first pixel in use. Pixels off the canvas are always free, the same as with bounding boxes,
+* so the spiral always finds a place for a word.
+*
+* @see GlyphMask
+* @see LogarithmicSpiralPlacer
+* @author Matthew Sloyan
+*/
+public class OccupancyMask {
+
+	private final int width;
+	private final int height;
+	private final int wordsPerRow;
+	private final long lastWordMask; // Pixels of the last long in each row that are on the canvas.
+	private final long[] bits;
+
+	public OccupancyMask(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.wordsPerRow = (width + 63) >>> 6;
+		this.lastWordMask = (width & 63) == 0 ? -1L : (1L << (width & 63)) - 1;
+		this.bits = new long[height * wordsPerRow];
+	}
+
+	/**
+	* Checks if a word drawn at (x, y) would cover any pixel already used.
+	*
+	* @param mask shape of the word.
+	* @param x where the word would be drawn.
+	* @param y baseline the word would be drawn on.
+	*/
+	public boolean collides(GlyphMask mask, int x, int y) {
+		return visit(mask, x, y, false);
+	}
+
+	/**
+	* Marks the pixels of a word drawn at (x, y) as used.
+	*/
+	public void add(GlyphMask mask, int x, int y) {
+		visit(mask, x, y, true);
+	}
+
+	/**
+	* Goes through every long of the mask that's on the canvas, either checking it against the canvas or adding it.
+	*/
+	private boolean visit(GlyphMask mask, int x, int y, boolean add) {
+		int left = x + mask.getLeft();
+		int top = y + mask.getTop();
+		int shift = left & 63;
+		int first = left >> 6; // Canvas long the first mask long starts in.
+
+		int startRow = Math.max(0, -top);
+		int endRow = Math.min(mask.getHeight(), height - top);
+		if (left >= width || left + mask.getWidth() <= 0) {
+			return false;
+		}
+
+		for (int r = startRow; r < endRow; r++) {
+			int row = (top + r) * wordsPerRow;
+			for (int k = 0; k < mask.getWordsPerRow(); k++) {
+				long b = mask.getBits(r, k);
+				if (b == 0) {
+					continue;
+				}
+
+				int w = first + k;
+				long low = b << shift;
+				long high = shift == 0 ? 0 : b >>> (64 - shift);
+
+				if (w >= 0 && w < wordsPerRow) {
+					if (w == wordsPerRow - 1) {
+						low &= lastWordMask;
+					}
+					if (add) {
+						bits[row + w] |= low;
+					}
+					else if ((bits[row + w] & low) != 0) {
+						return true;
+					}
+				}
+				if (w + 1 >= 0 && w + 1 < wordsPerRow) {
+					if (w + 1 == wordsPerRow - 1) {
+						high &= lastWordMask;
+					}
+					if (add) {
+						bits[row + w + 1] |= high;
+					}
+					else if ((bits[row + w + 1] & high) != 0) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,51 @@
+package ie.gmit.sw.ai.cloud;
+
+/**
+* Where the LogarithmicSpiralPlacer put a word on the canvas, and how it's drawn.
+* The placements are recorded so the same layout can be drawn as a PNG or written out as SVG.
+*
+* @see LogarithmicSpiralPlacer
+* @see SvgWriter
+* @author Matthew Sloyan
+*/
+public class PlacedWord {
+	private final String word;
+	private final int x; // Start of the baseline the word is drawn on.
+	private final int y;
+	private final int fontSize;
+	private final int width; // Width of the word in the font.
+	private final int colour; // 0xRRGGBB
+
+	public PlacedWord(String word, int x, int y, int fontSize, int width, int colour) {
+		this.word = word;
+		this.x = x;
+		this.y = y;
+		this.fontSize = fontSize;
+		this.width = width;
+		this.colour = colour;
+	}
+
+	public String getWord() {
+		return word;
+	}
+
+	public int getX() {
+		return x;
+	}
+
+	public int getY() {
+		return y;
+	}
+
+	public int getFontSize() {
+		return fontSize;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getColour() {
+		return colour;
+	}
+}
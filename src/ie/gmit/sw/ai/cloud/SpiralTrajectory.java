@@ -0,0 +1,97 @@
+package ie.gmit.sw.ai.cloud;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+* The points along the logarithmic spiral that the LogarithmicSpiralPlacer moves words along.
+*
+* Every word starts at the centre of the canvas and each step only depends on the last point and the step number,
+* so for a canvas size and turn the spiral is always the same points. Previously they were worked out again with
+* Math.cos and Math.sin at every step of every word. Instead they're worked out once, the same way, and shared by every
+* placer with the same canvas size and turn, so moving a word along the spiral is just reading two arrays.
+*
+* The points are held in arrays that are never changed once made. If a word goes further along the spiral than
+* has been worked out so far, longer arrays are made (copying the points so far) and swapped in, so a placer reading the
+* old arrays is never affected.
+*
+* @see LogarithmicSpiralPlacer
+* @author Matthew Sloyan
+*/
+public class SpiralTrajectory {
+
+	private static final int INITIAL_STEPS = 4096;
+
+	// Shared spirals by canvas size and turn.
+	private static final ConcurrentMap<Long, SpiralTrajectory> spirals = new ConcurrentHashMap<>();
+
+	private final int turn;
+	private volatile int[] xs;
+	private volatile int[] ys;
+
+	private SpiralTrajectory(int width, int height, int turn) {
+		this.turn = turn;
+		int[] x = new int[INITIAL_STEPS];
+		int[] y = new int[INITIAL_STEPS];
+		x[0] = width / 2; // Start at the centre.
+		y[0] = height / 2;
+		fill(x, y, 1);
+		this.xs = x;
+		this.ys = y;
+	}
+
+	/**
+	* Gets the shared spiral for a canvas size and turn.
+	*/
+	public static SpiralTrajectory getInstance(int width, int height, int turn) {
+		long key = (long) width << 40 | (long) height << 16 | (turn & 0xFFFF);
+		return spirals.computeIfAbsent(key, k -> new SpiralTrajectory(width, height, turn));
+	}
+
+	/**
+	* X of every point worked out so far, index k is the point after k steps. The array must not be changed.
+	*/
+	public int[] getXs() {
+		return xs;
+	}
+
+	/**
+	* Y of every point, the same length as getXs() if read after it.
+	*/
+	public int[] getYs() {
+		return ys;
+	}
+
+	/**
+	* Makes sure the spiral has been worked out past a step.
+	*/
+	public synchronized void grow(int steps) {
+		int[] x = xs;
+		if (steps < x.length) {
+			return;
+		}
+
+		int length = x.length;
+		while (length <= steps) {
+			length *= 2;
+		}
+		int[] newX = Arrays.copyOf(x, length);
+		int[] newY = Arrays.copyOf(ys, length);
+		fill(newX, newY, x.length);
+
+		// ys first, so a thread that reads the longer xs always gets ys at least as long.
+		ys = newY;
+		xs = newX;
+	}
+
+	// Works out the points from a step to the end of the arrays, the same way the placer always has.
+	private void fill(int[] x, int[] y, int from) {
+		for (int k = from; k < x.length; k++) {
+			int l = k * turn % 360;
+			double d = k * 0.1d;
+			x[k] = (int) Math.round(x[k - 1] + d * Math.cos(l * Math.PI / 180.0d));
+			y[k] = (int) Math.round(y[k - 1] + d * Math.sin(l * Math.PI / 180.0d));
+		}
+	}
+}
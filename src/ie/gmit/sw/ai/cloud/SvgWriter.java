@@ -0,0 +1,72 @@
+package ie.gmit.sw.ai.cloud;
+
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+* Writes a word cloud as SVG, from the words placed by the LogarithmicSpiralPlacer.
+*
+* Previously the cloud was always drawn into an 800x600 image, PNG encoded and then base64 encoded into the page,
+* which costs CPU for the deflate and makes the image about a third bigger again. Instead each placed word is written
+* straight to the response as a text element, so the cloud is a few KB, with no image, PNG or base64 step.
+*
+* The words are written in the same place, size and colour as in the PNG. The browser may not have the same font,
+* so each word is stretched or squeezed to the width it had when it was placed (textLength), so words still don't overlap.
+*
+* @see LogarithmicSpiralPlacer
+* @see PlacedWord
+* @author Matthew Sloyan
+*/
+public class SvgWriter {
+
+	private static final String FONT_FAMILY = "Tahoma, Verdana, sans-serif";
+
+	/**
+	* Writes the SVG element for a word cloud.
+	*
+	* @param words the placed words.
+	* @param width canvas width.
+	* @param height canvas height.
+	* @param out stream to write to, e.g. the response.
+	*/
+	public void write(List<PlacedWord> words, int width, int height, PrintWriter out) {
+		out.print("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + width + "\" height=\"" + height
+				+ "\" viewBox=\"0 0 " + width + " " + height + "\" font-family=\"" + FONT_FAMILY + "\">");
+		out.print("<title>Word Cloud</title>");
+		out.print("<rect width=\"100%\" height=\"100%\" fill=\"#000000\"/>");
+
+		for (PlacedWord word : words) {
+			out.print("<text x=\"" + word.getX() + "\" y=\"" + word.getY() + "\" font-size=\"" + word.getFontSize()
+					+ "\" fill=\"" + String.format("#%06x", word.getColour()) + "\"");
+			if (word.getWidth() > 0) {
+				out.print(" textLength=\"" + word.getWidth() + "\" lengthAdjust=\"spacingAndGlyphs\"");
+			}
+			out.print(">");
+			escape(word.getWord(), out);
+			out.print("</text>");
+		}
+
+		out.print("</svg>");
+	}
+
+	// Escapes the characters that can't be in XML text.
+	private void escape(String s, PrintWriter out) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '&':
+					out.print("&amp;");
+					break;
+				case '<':
+					out.print("&lt;");
+					break;
+				case '>':
+					out.print("&gt;");
+					break;
+				default:
+					out.print(c);
+					break;
+			}
+		}
+	}
+}
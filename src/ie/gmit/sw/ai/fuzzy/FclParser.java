@@ -0,0 +1,514 @@
+package ie.gmit.sw.ai.fuzzy;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+* Parses a function block from an FCL (IEC 61131-7) file and compiles it into a FuzzyEngine.
+*
+* Only the subset of FCL used by heuristic.fcl (and the common extensions of it) is supported:
+* - REAL input and output variables.
+* - Piecewise linear terms "(x, y) (x, y) ...", plus the TRIAN and TRAPE shorthands.
+* - Singleton output terms for COGS, or piecewise output terms for COG.
+* - Rule blocks with AND/OR (MIN/MAX or PROD/ASUM), ACT (MIN/PROD) and ACCU (MAX/SUM), one consequent per rule and an optional WITH weight.
+*
+* Conditions are evaluated left to right without precedence, which is how jFuzzyLogic builds its rule tree.
+* Anything else throws an IllegalArgumentException with the line it failed on, rather than being silently ignored.
+*
+* @see FuzzyEngine
+* @author Matthew Sloyan
+*/
+public class FclParser {
+
+	private List<String> tokens = new ArrayList<>();
+	private List<Integer> lines = new ArrayList<>();
+	private int pos;
+
+	// Parsed function block, kept in declaration order.
+	private Map<String, List<String>> inputTermNames = new LinkedHashMap<>();
+	private Map<String, List<double[]>> inputTermPoints = new LinkedHashMap<>();
+	private String outputName;
+	private List<String> outputTermNames = new ArrayList<>();
+	private List<double[]> outputTermPoints = new ArrayList<>();
+	private int defuzzifyMethod = FuzzyEngine.COGS;
+	private double defaultValue;
+	private int andMethod = FuzzyEngine.MIN;
+	private int actMethod = FuzzyEngine.MIN;
+	private int accuMethod = FuzzyEngine.MAX;
+	private List<int[]> rules = new ArrayList<>(); // {outputTerm, (term, not, or)...}
+	private List<Double> ruleWeights = new ArrayList<>();
+
+	/**
+	* Compile the named function block from FCL source.
+	*
+	* @param source contents of the .fcl file.
+	* @param blockName name of the FUNCTION_BLOCK to compile.
+	* @param version version number to stamp the engine with.
+	* @return compiled engine.
+	*/
+	public FuzzyEngine parse(String source, String blockName, long version) {
+		tokenize(source);
+
+		// Skip to the requested function block.
+		while (pos < tokens.size()) {
+			if (accept("FUNCTION_BLOCK") && peek().equals(blockName)) {
+				next();
+				return parseBlock(blockName, version);
+			}
+			pos++;
+		}
+		throw new IllegalArgumentException("Function block '" + blockName + "' not found");
+	}
+
+	private FuzzyEngine parseBlock(String blockName, long version) {
+		while (!accept("END_FUNCTION_BLOCK")) {
+			String keyword = next().toUpperCase();
+
+			switch (keyword) {
+				case "VAR_INPUT":
+					while (!accept("END_VAR")) {
+						String variable = next();
+						expect(":");
+						expect("REAL");
+						expect(";");
+						inputTermNames.put(variable, new ArrayList<>());
+						inputTermPoints.put(variable, new ArrayList<>());
+					}
+					break;
+				case "VAR_OUTPUT":
+					while (!accept("END_VAR")) {
+						if (outputName != null) {
+							throw error("Only one output variable is supported");
+						}
+						outputName = next();
+						expect(":");
+						expect("REAL");
+						expect(";");
+					}
+					break;
+				case "FUZZIFY":
+					parseFuzzify();
+					break;
+				case "DEFUZZIFY":
+					parseDefuzzify();
+					break;
+				case "RULEBLOCK":
+					parseRuleBlock();
+					break;
+				default:
+					throw error("Unexpected '" + keyword + "'");
+			}
+		}
+
+		return compile(blockName, version);
+	}
+
+	private void parseFuzzify() {
+		String variable = next();
+		List<String> names = inputTermNames.get(variable);
+		if (names == null) {
+			throw error("Unknown input variable '" + variable + "'");
+		}
+
+		while (!accept("END_FUZZIFY")) {
+			expect("TERM");
+			names.add(next());
+			expect(":=");
+			inputTermPoints.get(variable).add(parseShape());
+			expect(";");
+		}
+	}
+
+	private void parseDefuzzify() {
+		String variable = next();
+		if (!variable.equals(outputName)) {
+			throw error("Unknown output variable '" + variable + "'");
+		}
+
+		while (!accept("END_DEFUZZIFY")) {
+			String keyword = next().toUpperCase();
+
+			switch (keyword) {
+				case "TERM":
+					outputTermNames.add(next());
+					expect(":=");
+					if (peek().equals("(") || isShape(peek())) {
+						outputTermPoints.add(parseShape());
+					} else {
+						outputTermPoints.add(new double[] { number() });
+					}
+					break;
+				case "METHOD":
+					expect(":");
+					String method = next().toUpperCase();
+					if (method.equals("COGS")) {
+						defuzzifyMethod = FuzzyEngine.COGS;
+					} else if (method.equals("COG")) {
+						defuzzifyMethod = FuzzyEngine.COG;
+					} else {
+						throw error("Unsupported defuzzification method '" + method + "'");
+					}
+					break;
+				case "DEFAULT":
+					expect(":=");
+					defaultValue = number();
+					break;
+				case "RANGE":
+					// The range is implied by the terms, skip it.
+					while (!peek().equals(";")) {
+						next();
+					}
+					break;
+				default:
+					throw error("Unexpected '" + keyword + "'");
+			}
+			expect(";");
+		}
+	}
+
+	private void parseRuleBlock() {
+		next(); // Rule block name.
+
+		while (!accept("END_RULEBLOCK")) {
+			String keyword = next().toUpperCase();
+
+			switch (keyword) {
+				case "AND":
+				case "OR":
+					expect(":");
+					String and = next().toUpperCase();
+					andMethod = and.equals("MIN") || and.equals("MAX") ? FuzzyEngine.MIN : method(and, "PROD", "ASUM", FuzzyEngine.PROD);
+					break;
+				case "ACT":
+					expect(":");
+					String act = next().toUpperCase();
+					actMethod = act.equals("MIN") ? FuzzyEngine.MIN : method(act, "PROD", "PROD", FuzzyEngine.PROD);
+					break;
+				case "ACCU":
+					expect(":");
+					String accu = next().toUpperCase();
+					accuMethod = accu.equals("MAX") ? FuzzyEngine.MAX : method(accu, "SUM", "BSUM", FuzzyEngine.SUM);
+					break;
+				case "RULE":
+					next(); // Rule number.
+					expect(":");
+					parseRule();
+					break;
+				default:
+					throw error("Unexpected '" + keyword + "'");
+			}
+			expect(";");
+		}
+	}
+
+	private void parseRule() {
+		List<Integer> rule = new ArrayList<>();
+		rule.add(0); // Output term, filled in below.
+
+		expect("IF");
+		boolean or = false;
+		do {
+			String variable = next();
+			expect("IS");
+			boolean not = accept("NOT");
+			String term = next();
+
+			int index = inputTermIndex(variable, term);
+			rule.add(index);
+			rule.add(not ? 1 : 0);
+			rule.add(or ? 1 : 0);
+
+			if (accept("AND")) {
+				or = false;
+			} else if (accept("OR")) {
+				or = true;
+			} else {
+				break;
+			}
+		} while (true);
+
+		expect("THEN");
+		String variable = next();
+		if (!variable.equals(outputName)) {
+			throw error("Unknown output variable '" + variable + "'");
+		}
+		expect("IS");
+		String term = next();
+		int outputTerm = outputTermNames.indexOf(term);
+		if (outputTerm < 0) {
+			throw error("Unknown term '" + term + "'");
+		}
+		rule.set(0, outputTerm);
+
+		double weight = 1.0d;
+		if (accept("WITH")) {
+			weight = number();
+		}
+
+		int[] flat = new int[rule.size()];
+		for (int i = 0; i < flat.length; i++) {
+			flat[i] = rule.get(i);
+		}
+		rules.add(flat);
+		ruleWeights.add(weight);
+	}
+
+	// Parses "(x, y) (x, y) ...", "TRIAN a b c" or "TRAPE a b c d" into a flat {x, y, x, y...} array.
+	private double[] parseShape() {
+		String shape = peek().toUpperCase();
+		if (shape.equals("TRIAN")) {
+			next();
+			double a = number(), b = number(), c = number();
+			return new double[] { a, 0, b, 1, c, 0 };
+		}
+		if (shape.equals("TRAPE")) {
+			next();
+			double a = number(), b = number(), c = number(), d = number();
+			return new double[] { a, 0, b, 1, c, 1, d, 0 };
+		}
+
+		List<Double> points = new ArrayList<>();
+		while (accept("(")) {
+			points.add(number());
+			expect(",");
+			points.add(number());
+			expect(")");
+		}
+		if (points.isEmpty()) {
+			throw error("Expected membership function");
+		}
+
+		double[] flat = new double[points.size()];
+		for (int i = 0; i < flat.length; i++) {
+			flat[i] = points.get(i);
+		}
+		return flat;
+	}
+
+	private boolean isShape(String token) {
+		return token.equalsIgnoreCase("TRIAN") || token.equalsIgnoreCase("TRAPE");
+	}
+
+	private int method(String found, String a, String b, int value) {
+		if (found.equals(a) || found.equals(b)) {
+			return value;
+		}
+		throw error("Unsupported method '" + found + "'");
+	}
+
+	// Global index of an input term, used as the slot for its membership degree in the engine.
+	private int inputTermIndex(String variable, String term) {
+		int offset = 0;
+		for (Map.Entry<String, List<String>> entry : inputTermNames.entrySet()) {
+			if (entry.getKey().equals(variable)) {
+				int index = entry.getValue().indexOf(term);
+				if (index < 0) {
+					throw error("Unknown term '" + term + "' for '" + variable + "'");
+				}
+				return offset + index;
+			}
+			offset += entry.getValue().size();
+		}
+		throw error("Unknown input variable '" + variable + "'");
+	}
+
+	/**
+	* Flattens everything parsed into the arrays used by the FuzzyEngine.
+	*/
+	private FuzzyEngine compile(String blockName, long version) {
+		if (outputName == null || outputTermNames.isEmpty()) {
+			throw new IllegalArgumentException("No output variable defined in '" + blockName + "'");
+		}
+
+		// == Inputs ==
+		String[] inputNames = inputTermNames.keySet().toArray(new String[0]);
+		int[] inputTermStart = new int[inputNames.length + 1];
+		List<double[]> terms = new ArrayList<>();
+		for (int i = 0; i < inputNames.length; i++) {
+			inputTermStart[i] = terms.size();
+			terms.addAll(inputTermPoints.get(inputNames[i]));
+		}
+		inputTermStart[inputNames.length] = terms.size();
+
+		int points = 0;
+		for (double[] term : terms) {
+			points += term.length / 2;
+		}
+		int[] pointStart = new int[terms.size() + 1];
+		double[] pointX = new double[points];
+		double[] pointY = new double[points];
+		int p = 0;
+		for (int t = 0; t < terms.size(); t++) {
+			pointStart[t] = p;
+			double[] term = terms.get(t);
+			for (int i = 0; i < term.length; i += 2) {
+				pointX[p] = term[i];
+				pointY[p] = term[i + 1];
+				p++;
+			}
+		}
+		pointStart[terms.size()] = p;
+
+		// == Rules ==
+		int clauses = 0;
+		for (int[] rule : rules) {
+			clauses += (rule.length - 1) / 3;
+		}
+		int[] ruleStart = new int[rules.size() + 1];
+		int[] ruleOutputTerm = new int[rules.size()];
+		double[] ruleWeight = new double[rules.size()];
+		int[] clauseTerm = new int[clauses];
+		boolean[] clauseNot = new boolean[clauses];
+		boolean[] clauseOr = new boolean[clauses];
+		int c = 0;
+		for (int r = 0; r < rules.size(); r++) {
+			int[] rule = rules.get(r);
+			ruleStart[r] = c;
+			ruleOutputTerm[r] = rule[0];
+			ruleWeight[r] = ruleWeights.get(r);
+			for (int i = 1; i < rule.length; i += 3) {
+				clauseTerm[c] = rule[i];
+				clauseNot[c] = rule[i + 1] == 1;
+				clauseOr[c] = rule[i + 2] == 1;
+				c++;
+			}
+		}
+		ruleStart[rules.size()] = c;
+
+		// == Output ==
+		double[] singletons = null;
+		double[][] outputPoints = null;
+		if (defuzzifyMethod == FuzzyEngine.COGS) {
+			singletons = new double[outputTermPoints.size()];
+			for (int t = 0; t < singletons.length; t++) {
+				if (outputTermPoints.get(t).length != 1) {
+					throw new IllegalArgumentException("COGS requires singleton output terms");
+				}
+				singletons[t] = outputTermPoints.get(t)[0];
+			}
+		} else {
+			outputPoints = new double[outputTermPoints.size()][];
+			for (int t = 0; t < outputPoints.length; t++) {
+				double[] term = outputTermPoints.get(t);
+				// A singleton under COG is treated as a spike at that value.
+				outputPoints[t] = term.length == 1 ? new double[] { term[0], 1 } : term;
+			}
+		}
+
+		return new FuzzyEngine(blockName, version, inputNames, inputTermStart, pointStart, pointX, pointY,
+				andMethod, actMethod, accuMethod, ruleStart, clauseTerm, clauseNot, clauseOr, ruleOutputTerm, ruleWeight,
+				outputName, defuzzifyMethod, defaultValue, singletons, outputPoints);
+	}
+
+	// == Tokenizer ==
+
+	/**
+	* Splits the source into identifiers, numbers and symbols, dropping "//", "/* * /" and "(* *)" comments.
+	*/
+	private void tokenize(String source) {
+		int line = 1;
+		int i = 0;
+		int n = source.length();
+
+		while (i < n) {
+			char ch = source.charAt(i);
+
+			if (ch == '\n') {
+				line++;
+				i++;
+			}
+			else if (Character.isWhitespace(ch)) {
+				i++;
+			}
+			else if (source.startsWith("//", i)) {
+				while (i < n && source.charAt(i) != '\n') {
+					i++;
+				}
+			}
+			else if (source.startsWith("/*", i) || source.startsWith("(*", i)) {
+				String end = ch == '/' ? "*/" : "*)";
+				int close = source.indexOf(end, i + 2);
+				close = close < 0 ? n : close + 2;
+				for (int j = i; j < close; j++) {
+					if (source.charAt(j) == '\n') {
+						line++;
+					}
+				}
+				i = close;
+			}
+			else if (source.startsWith(":=", i) || source.startsWith("..", i)) {
+				add(source.substring(i, i + 2), line);
+				i += 2;
+			}
+			else if (Character.isLetter(ch) || ch == '_') {
+				int start = i;
+				while (i < n && (Character.isLetterOrDigit(source.charAt(i)) || source.charAt(i) == '_')) {
+					i++;
+				}
+				add(source.substring(start, i), line);
+			}
+			else if (Character.isDigit(ch) || ((ch == '-' || ch == '+' || ch == '.') && i + 1 < n && Character.isDigit(source.charAt(i + 1)))) {
+				int start = i++;
+				while (i < n && (Character.isDigit(source.charAt(i)) || source.charAt(i) == 'e' || source.charAt(i) == 'E'
+						|| (source.charAt(i) == '.' && !source.startsWith("..", i))
+						|| ((source.charAt(i) == '-' || source.charAt(i) == '+') && (source.charAt(i - 1) == 'e' || source.charAt(i - 1) == 'E')))) {
+					i++;
+				}
+				add(source.substring(start, i), line);
+			}
+			else {
+				add(String.valueOf(ch), line);
+				i++;
+			}
+		}
+	}
+
+	private void add(String token, int line) {
+		tokens.add(token);
+		lines.add(line);
+	}
+
+	private String peek() {
+		if (pos >= tokens.size()) {
+			throw new IllegalArgumentException("Unexpected end of file");
+		}
+		return tokens.get(pos);
+	}
+
+	private String next() {
+		String token = peek();
+		pos++;
+		return token;
+	}
+
+	// Keywords are case insensitive in FCL ("body is not_significant" is used in heuristic.fcl).
+	private boolean accept(String keyword) {
+		if (pos < tokens.size() && tokens.get(pos).equalsIgnoreCase(keyword)) {
+			pos++;
+			return true;
+		}
+		return false;
+	}
+
+	private void expect(String keyword) {
+		if (!accept(keyword)) {
+			throw error("Expected '" + keyword + "' but found '" + (pos < tokens.size() ? tokens.get(pos) : "EOF") + "'");
+		}
+	}
+
+	private double number() {
+		String token = next();
+		try {
+			return Double.parseDouble(token);
+		} catch (NumberFormatException e) {
+			throw error("Expected number but found '" + token + "'");
+		}
+	}
+
+	private IllegalArgumentException error(String message) {
+		int line = lines.isEmpty() ? 0 : lines.get(Math.min(pos, lines.size() - 1));
+		return new IllegalArgumentException(message + " (line " + line + ")");
+	}
+}
@@ -0,0 +1,296 @@
+package ie.gmit.sw.ai.fuzzy;
+
+/**
+* Compiled, immutable form of a single FCL function block.
+*
+* jFuzzyLogic builds a tree of Variable, LinguisticTerm and Rule objects for every FIS.load() and stores the
+* latest membership degrees and defuzzified value inside those objects, so a loaded FIS can't be shared between threads.
+* Instead the function block is parsed once by the FclParser and flattened into primitive arrays:
+*
+* - Membership functions are piecewise linear, stored as point/slope arrays so fuzzifying is a short scan with one multiply.
+* - Rules are stored as a flat clause table (term index, NOT flag, AND/OR connector) evaluated left to right.
+* - Defuzzification is either COGS over singletons, or COG over a fixed number of precomputed samples.
+*
+* Nothing in this class is mutated after construction, so one instance can be evaluated by any number of threads.
+* All working values are written into a caller supplied scratch array (see newScratch()), so evaluating does not allocate.
+*
+* @see FclParser
+* @see FuzzyEngineCache
+* @author Matthew Sloyan
+*/
+public final class FuzzyEngine {
+
+	// Methods supported for AND/OR, activation and accumulation.
+	public static final int MIN = 0;
+	public static final int PROD = 1;
+	public static final int MAX = 0;
+	public static final int SUM = 1;
+
+	// Defuzzification methods.
+	public static final int COGS = 0;
+	public static final int COG = 1;
+
+	// Number of samples used for COG, the same default resolution jFuzzyLogic uses.
+	public static final int COG_RESOLUTION = 1000;
+
+	private final String name;
+	private final long version;
+
+	// == Inputs ==
+	private final String[] inputNames;
+	private final int[] inputTermStart; // First term of each input, inputTermStart[inputs] = total input terms.
+	private final int[] pointStart; // First point of each term, pointStart[terms] = total points.
+	private final double[] pointX;
+	private final double[] pointY;
+	private final double[] slope; // Slope of the segment ending at each point.
+
+	// == Rules ==
+	private final int andMethod;
+	private final int actMethod;
+	private final int accuMethod;
+	private final int[] ruleStart; // First clause of each rule, ruleStart[rules] = total clauses.
+	private final int[] clauseTerm;
+	private final boolean[] clauseNot;
+	private final boolean[] clauseOr; // Connector between this clause and the result so far (ignored for the first clause).
+	private final int[] ruleOutputTerm;
+	private final double[] ruleWeight;
+
+	// == Output ==
+	private final String outputName;
+	private final int defuzzifyMethod;
+	private final double defaultValue;
+	private final double[] singletons; // COGS only.
+	private final double[] sampleX; // COG only.
+	private final double[] samples; // COG only, output term t at sample i is samples[t * COG_RESOLUTION + i].
+	private final int outputTerms;
+
+	FuzzyEngine(String name, long version, String[] inputNames, int[] inputTermStart, int[] pointStart, double[] pointX, double[] pointY,
+			int andMethod, int actMethod, int accuMethod, int[] ruleStart, int[] clauseTerm, boolean[] clauseNot, boolean[] clauseOr,
+			int[] ruleOutputTerm, double[] ruleWeight, String outputName, int defuzzifyMethod, double defaultValue,
+			double[] singletons, double[][] outputPoints) {
+		this.name = name;
+		this.version = version;
+		this.inputNames = inputNames;
+		this.inputTermStart = inputTermStart;
+		this.pointStart = pointStart;
+		this.pointX = pointX;
+		this.pointY = pointY;
+		this.andMethod = andMethod;
+		this.actMethod = actMethod;
+		this.accuMethod = accuMethod;
+		this.ruleStart = ruleStart;
+		this.clauseTerm = clauseTerm;
+		this.clauseNot = clauseNot;
+		this.clauseOr = clauseOr;
+		this.ruleOutputTerm = ruleOutputTerm;
+		this.ruleWeight = ruleWeight;
+		this.outputName = outputName;
+		this.defuzzifyMethod = defuzzifyMethod;
+		this.defaultValue = defaultValue;
+
+		// Precompute slopes so fuzzifying only needs one multiply per input term.
+		this.slope = new double[pointX.length];
+		for (int p = 1; p < pointX.length; p++) {
+			double dx = pointX[p] - pointX[p - 1];
+			slope[p] = dx == 0 ? 0 : (pointY[p] - pointY[p - 1]) / dx;
+		}
+
+		if (defuzzifyMethod == COGS) {
+			this.singletons = singletons;
+			this.outputTerms = singletons.length;
+			this.sampleX = null;
+			this.samples = null;
+		}
+		else {
+			this.singletons = null;
+			this.outputTerms = outputPoints.length;
+
+			// Universe of discourse is taken from the outermost points of the output terms.
+			double min = Double.MAX_VALUE;
+			double max = -Double.MAX_VALUE;
+			for (double[] points : outputPoints) {
+				for (int i = 0; i < points.length; i += 2) {
+					min = Math.min(min, points[i]);
+					max = Math.max(max, points[i]);
+				}
+			}
+
+			this.sampleX = new double[COG_RESOLUTION];
+			this.samples = new double[outputTerms * COG_RESOLUTION];
+			double step = (max - min) / (COG_RESOLUTION - 1);
+			for (int i = 0; i < COG_RESOLUTION; i++) {
+				sampleX[i] = min + i * step;
+				for (int t = 0; t < outputTerms; t++) {
+					samples[t * COG_RESOLUTION + i] = piecewise(outputPoints[t], sampleX[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	* Creates a scratch array big enough to evaluate this engine. Callers should keep one per thread and reuse it.
+	*
+	* @return scratch array.
+	*/
+	public double[] newScratch() {
+		return new double[getScratchSize()];
+	}
+
+	public int getScratchSize() {
+		return inputTermStart[inputNames.length] + outputTerms;
+	}
+
+	/**
+	* Fuzzifies the inputs, fires every rule and defuzzifies the output.
+	* The inputs must be in the same order they are declared in VAR_INPUT (see getInputIndex()).
+	*
+	* @param inputs crisp input values.
+	* @param scratch working array of at least getScratchSize() values.
+	* @return defuzzified output value.
+	*/
+	public double evaluate(double[] inputs, double[] scratch) {
+		int inputTerms = inputTermStart[inputNames.length];
+
+		// == Fuzzify ==
+		for (int in = 0; in < inputNames.length; in++) {
+			double x = inputs[in];
+			for (int t = inputTermStart[in]; t < inputTermStart[in + 1]; t++) {
+				scratch[t] = membership(t, x);
+			}
+		}
+
+		// == Fire rules and accumulate each output term ==
+		for (int t = 0; t < outputTerms; t++) {
+			scratch[inputTerms + t] = 0;
+		}
+
+		for (int r = 0; r < ruleOutputTerm.length; r++) {
+			double degree = 0;
+			for (int c = ruleStart[r]; c < ruleStart[r + 1]; c++) {
+				double value = clauseNot[c] ? 1.0d - scratch[clauseTerm[c]] : scratch[clauseTerm[c]];
+
+				if (c == ruleStart[r]) {
+					degree = value;
+				}
+				else if (clauseOr[c]) {
+					degree = andMethod == MIN ? Math.max(degree, value) : degree + value - degree * value;
+				}
+				else {
+					degree = andMethod == MIN ? Math.min(degree, value) : degree * value;
+				}
+			}
+			degree *= ruleWeight[r];
+
+			int slot = inputTerms + ruleOutputTerm[r];
+			scratch[slot] = accuMethod == MAX ? Math.max(scratch[slot], degree) : Math.min(1.0d, scratch[slot] + degree);
+		}
+
+		// == Defuzzify ==
+		if (defuzzifyMethod == COGS) {
+			double sum = 0;
+			double weights = 0;
+			for (int t = 0; t < outputTerms; t++) {
+				double w = scratch[inputTerms + t];
+				sum += singletons[t] * w;
+				weights += w;
+			}
+			return weights == 0 ? defaultValue : sum / weights;
+		}
+
+		double sum = 0;
+		double area = 0;
+		for (int i = 0; i < COG_RESOLUTION; i++) {
+			double y = 0;
+			for (int t = 0; t < outputTerms; t++) {
+				double activation = scratch[inputTerms + t];
+				double sample = samples[t * COG_RESOLUTION + i];
+				double clipped = actMethod == MIN ? Math.min(activation, sample) : activation * sample;
+				y = accuMethod == MAX ? Math.max(y, clipped) : Math.min(1.0d, y + clipped);
+			}
+			sum += sampleX[i] * y;
+			area += y;
+		}
+		return area == 0 ? defaultValue : sum / area;
+	}
+
+	/**
+	* Degree of membership of x in input term t. Outside the defined points the first/last value is used.
+	*/
+	private double membership(int t, double x) {
+		int first = pointStart[t];
+		int last = pointStart[t + 1] - 1;
+
+		if (x <= pointX[first]) {
+			return pointY[first];
+		}
+		for (int p = first + 1; p <= last; p++) {
+			if (x <= pointX[p]) {
+				return pointY[p - 1] + (x - pointX[p - 1]) * slope[p];
+			}
+		}
+		return pointY[last];
+	}
+
+	// Same as membership() but for the output terms, only used when precomputing the COG samples.
+	private static double piecewise(double[] points, double x) {
+		if (x <= points[0]) {
+			return points[1];
+		}
+		for (int i = 2; i < points.length; i += 2) {
+			if (x <= points[i]) {
+				double dx = points[i] - points[i - 2];
+				return dx == 0 ? points[i + 1] : points[i - 1] + (x - points[i - 2]) * (points[i + 1] - points[i - 1]) / dx;
+			}
+		}
+		return points[points.length - 1];
+	}
+
+	/**
+	* Index of an input variable, used to place values in the inputs array.
+	*
+	* @return index or -1 if the variable doesn't exist.
+	*/
+	public int getInputIndex(String variable) {
+		for (int i = 0; i < inputNames.length; i++) {
+			if (inputNames[i].equals(variable)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	* Indexes of several input variables, so callers can resolve them once rather than on every evaluation.
+	*
+	* @throws IllegalArgumentException if any of the variables doesn't exist.
+	*/
+	public int[] getInputIndexes(String... variables) {
+		int[] indexes = new int[variables.length];
+		for (int i = 0; i < variables.length; i++) {
+			indexes[i] = getInputIndex(variables[i]);
+			if (indexes[i] < 0) {
+				throw new IllegalArgumentException("No input variable '" + variables[i] + "' in function block " + name);
+			}
+		}
+		return indexes;
+	}
+
+	public int getInputCount() {
+		return inputNames.length;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getOutputName() {
+		return outputName;
+	}
+
+	/**
+	* Version of the file this engine was compiled from, increases every time the file is reloaded.
+	*/
+	public long getVersion() {
+		return version;
+	}
+}
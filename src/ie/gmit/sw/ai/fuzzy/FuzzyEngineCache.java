@@ -0,0 +1,99 @@
+package ie.gmit.sw.ai.fuzzy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+* Holds one compiled FuzzyEngine per FCL file and function block, so the file is only parsed when it changes
+* rather than on every call to the heuristic.
+*
+* The file's last modified time and length are checked at most once every RELOAD_CHECK_INTERVAL ms. If they have
+* changed the file is recompiled and swapped in with a single volatile write, so threads evaluating the old engine
+* finish with it and the next call picks up the new one. Readers never lock, only the thread doing the reload does.
+* If the new file fails to compile, or is missing any of the input variables the caller needs, the previous engine is kept.
+*
+* @see FuzzyEngine
+* @see FclParser
+* @author Matthew Sloyan
+*/
+public class FuzzyEngineCache {
+
+	private static final long RELOAD_CHECK_INTERVAL = 1000;
+
+	// File name -> block name -> engine. Two levels so a lookup doesn't need to build a key.
+	private static final ConcurrentMap<String, ConcurrentMap<String, Entry>> engines = new ConcurrentHashMap<>();
+
+	private FuzzyEngineCache() {}
+
+	/**
+	* Gets the compiled engine for a function block, compiling it on first use or if the file has changed.
+	*
+	* @param fileName path to the .fcl file.
+	* @param blockName name of the FUNCTION_BLOCK.
+	* @param inputs input variables the block must have, checked each time the file is compiled.
+	* @return compiled engine, or null if the file has never compiled successfully.
+	*/
+	public static FuzzyEngine getEngine(String fileName, String blockName, String... inputs) {
+		ConcurrentMap<String, Entry> blocks = engines.get(fileName);
+		if (blocks == null) {
+			blocks = engines.computeIfAbsent(fileName, k -> new ConcurrentHashMap<>());
+		}
+		Entry entry = blocks.get(blockName);
+		if (entry == null) {
+			entry = blocks.computeIfAbsent(blockName, k -> new Entry(fileName, blockName, inputs));
+		}
+
+		long now = System.currentTimeMillis();
+		if (now >= entry.nextCheck) {
+			entry.reloadIfChanged(now);
+		}
+		return entry.engine;
+	}
+
+	// One compiled engine and the file state it was compiled from.
+	private static class Entry {
+		private final File file;
+		private final String blockName;
+		private final String[] inputs;
+		private volatile FuzzyEngine engine;
+		private volatile long nextCheck;
+		private long lastModified = -1;
+		private long length = -1;
+		private long version;
+
+		Entry(String fileName, String blockName, String[] inputs) {
+			this.file = new File(fileName);
+			this.blockName = blockName;
+			this.inputs = inputs;
+		}
+
+		synchronized void reloadIfChanged(long now) {
+			// Another thread may have reloaded while this one was waiting.
+			if (now < nextCheck) {
+				return;
+			}
+			nextCheck = now + RELOAD_CHECK_INTERVAL;
+
+			long modified = file.lastModified();
+			long size = file.length();
+			if (engine != null && modified == lastModified && size == length) {
+				return;
+			}
+
+			try {
+				String source = new String(java.nio.file.Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+				FuzzyEngine next = new FclParser().parse(source, blockName, version + 1);
+				next.getInputIndexes(inputs);
+				engine = next;
+				version++;
+				lastModified = modified;
+				length = size;
+			} catch (IOException | IllegalArgumentException e) {
+				System.err.println("Can't load file: '" + file + "' " + e.getMessage());
+			}
+		}
+	}
+}
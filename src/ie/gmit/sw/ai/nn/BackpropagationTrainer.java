@@ -62,12 +62,18 @@ public class BackpropagationTrainer implements Trainator{
 			err_out[out] =  net.getActivator().derivative(net.getOutputLayer()[out]) * (expected[out] - net.getOutputLayer()[out]);
 		}
 		
+		//The weights are stored flat, one row per neuron with the bias last (see NeuralNetwork)
+		int numIn = net.getInputLayer().length;
+		int numHid = net.getHiddenLayer().length;
+		double[] ihW = net.getHiddenWeights();
+		double[] hoW = net.getOutputWeights();
+		
 		//Compute the error gradient in the hidden layer
 		for (int hid = 0; hid < net.getHiddenLayer().length; hid++){
 			err_hidden[hid] = 0.0d;
 			//delta_j(p) = y_j(p) * (1 - y_j(p)) * Sum(delta_k(p) * w_jk(p))
 			for (int out = 0; out < net.getOutputLayer().length; out++){
-				err_hidden[hid] += err_out[out] * net.getOutputWeights()[hid][out];
+				err_hidden[hid] += err_out[out] * hoW[out * (numHid + 1) + hid];
 			}
 			err_hidden[hid] *= net.getActivator().derivative(net.getHiddenLayer()[hid]);
 		}
@@ -77,9 +83,9 @@ public class BackpropagationTrainer implements Trainator{
 		for (int out = 0; out < net.getOutputLayer().length; out++){
 			for (int hid = 0; hid < net.getHiddenLayer().length; hid++){
 				//delta_w_jk(p) = alpha * y_j(p) * delta_k(p)
-				net.getOutputWeights()[hid][out] += alpha * net.getHiddenLayer()[hid] * err_out[out];
+				hoW[out * (numHid + 1) + hid] += alpha * net.getHiddenLayer()[hid] * err_out[out];
 			}
-			net.getOutputWeights()[net.getHiddenLayer().length][out] += (MOMENTUM * alpha * err_out[out]);
+			hoW[out * (numHid + 1) + numHid] += (MOMENTUM * alpha * err_out[out]);
 		}
 		
 		
@@ -87,10 +93,10 @@ public class BackpropagationTrainer implements Trainator{
 		for (int hid = 0; hid < net.getHiddenLayer().length; hid++){
 			for (int in = 0; in < net.getInputLayer().length; in++){
 				//delta_w_ij(p) = alpha * x_i(p) * delta_j(p)
-				net.getHiddenWeights()[in][hid] += (alpha * net.getInputLayer()[in] * err_hidden[hid]);
+				ihW[hid * (numIn + 1) + in] += (alpha * net.getInputLayer()[in] * err_hidden[hid]);
 			}
 			//w_ij(p + 1) = w_ij(p) + delta_w_ij(p)
-			net.getHiddenWeights()[net.getInputLayer().length][hid] += (MOMENTUM * alpha * err_hidden[hid]);
+			ihW[hid * (numIn + 1) + numIn] += (MOMENTUM * alpha * err_hidden[hid]);
 		}
 	}
 }
\ No newline at end of file
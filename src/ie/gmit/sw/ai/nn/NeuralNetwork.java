@@ -16,15 +16,39 @@ import java.io.Serializable;
  */
 
 import java.util.*;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import ie.gmit.sw.ai.nn.activator.*;
 public class NeuralNetwork implements Serializable{
+	//Same as the original double[][] version, so existing model.ser files can still be read
+	private static final long serialVersionUID = -8763171091722731309L;
+	
+	//The weights are serialized as the original double[][] matrices (see writeObject/readObject)
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("activator", Activator.class),
+		new ObjectStreamField("inputs", double[].class),
+		new ObjectStreamField("hidden", double[].class),
+		new ObjectStreamField("outputs", double[].class),
+		new ObjectStreamField("ihW", double[][].class),
+		new ObjectStreamField("hoW", double[][].class)
+	};
+	
 	private Activator activator;
-	private double[] inputs; //Stores inputs X1, X2,...,Xn 
-	private double[] hidden; //Stores activated inputs
-	private double[] outputs; //Stores Y
+	private double[] inputs; //Stores inputs X1, X2,...,Xn (training only)
+	private double[] hidden; //Stores activated inputs (training only)
+	private double[] outputs; //Stores Y (training only)
 	
-	private double[][] ihW; //Matrix of weights for input->hidden layer
-	private double[][] hoW; //Matrix of weights for hidden->output layer
+	/*
+	 * The weights are stored in flat, contiguous arrays with one row per neuron, so the
+	 * weighted sum for a neuron is a sequential scan. The bias is the last value in each row:
+	 * 
+	 *    ihW[hid * (inputs + 1) + in]   input->hidden
+	 *    hoW[out * (hidden + 1) + hid]  hidden->output
+	 */
+	private double[] ihW; //Weights for input->hidden layer
+	private double[] hoW; //Weights for hidden->output layer
 
 	public NeuralNetwork(Activator.ActivationFunction function, int num_input_nodes, int num_hidden_nodes, int num_output_nodes) {
 		this.activator = ActivatorFactory.getInstance().getActivator(function);
@@ -32,13 +56,18 @@ public class NeuralNetwork implements Serializable{
 		this.hidden = new double[num_hidden_nodes];
 		this.outputs = new double[num_output_nodes];
 		
-		this.ihW = new double[num_input_nodes + 1][num_hidden_nodes]; //An extra row for the bias
-		this.hoW = new double[num_hidden_nodes + 1][num_output_nodes]; //An extra row for the bias
+		this.ihW = new double[(num_input_nodes + 1) * num_hidden_nodes]; //An extra weight per neuron for the bias
+		this.hoW = new double[(num_hidden_nodes + 1) * num_output_nodes]; //An extra weight per neuron for the bias
 		
 		this.initialiseWeights(ihW);
 		this.initialiseWeights(hoW);
 	}
 	
+	/*
+	 * Feeds the inputs through the network using the network's own layer arrays. This is
+	 * what the trainer uses, so it is NOT thread safe and the returned array is overwritten
+	 * by the next call. Use process(Context) to share one network between threads.
+	 */
 	public double[] process(double[] data_inputs) throws Exception{
 		//Check for consistent input
 		if (data_inputs.length != inputs.length){
@@ -56,35 +85,81 @@ public class NeuralNetwork implements Serializable{
 		//Return the out layer
 		return outputs;
 	}
+	
+	/*
+	 * Stateless inference. The weights are only read, and every intermediate value is written
+	 * into the caller's context, so any number of threads can use the same network as long as
+	 * each has its own context. Nothing is allocated per call.
+	 */
+	public double[] process(Context ctx){
+		return process(ctx, 1);
+	}
+	
+	/*
+	 * Batched stateless inference. Feeds the first count rows of ctx.getInputs() through the
+	 * network in one pass, writing row i of the result to ctx.getOutputs() at i * outputs.
+	 */
+	public double[] process(Context ctx, int count){
+		if (count > ctx.capacity){
+			throw new IllegalArgumentException("Batch of " + count + " is larger than the context (" + ctx.capacity + ")");
+		}
+		feedForward(ctx.inputs, ctx.hidden, ctx.outputs, count);
+		return ctx.outputs;
+	}
+	
+	//Creates a set of scratch buffers sized for this network. Keep one per thread and reuse it.
+	public Context newContext(){
+		return newContext(1);
+	}
+	
+	//Creates a set of scratch buffers for batches of up to capacity rows.
+	public Context newContext(int capacity){
+		return new Context(inputs.length, hidden.length, outputs.length, capacity);
+	}
 
-	private void initialiseWeights(double[][] matrix){
+	private void initialiseWeights(double[] matrix){
 		//Initialize weights to random numbers in range -0.5 - +0.5
 		Random rand = new Random();  
-		for (int row = 0; row < matrix.length; row++){
-			for (int col = 0; col < matrix[row].length; col++){
-				matrix[row][col] = rand.nextDouble() - 0.5;
-			}
+		for (int i = 0; i < matrix.length; i++){
+			matrix[i] = rand.nextDouble() - 0.5;
 		}
 	}
 	
 	public void feedForward(){ 
+		feedForward(inputs, hidden, outputs, 1);
+	}
+	
+	/*
+	 * Feeds count rows through the network as a matrix multiply, H = f(X.Wih + b) then
+	 * Y = f(H.Who + b). The loops go neuron by neuron, so each row of weights is read once
+	 * and reused for every row in the batch while it's still in cache.
+	 */
+	private void feedForward(double[] inputs, double[] hidden, double[] outputs, int count){ 
 		//Feed the inputs forward through the network as a weighted sum
-		double sum = 0.0d;
+		int numIn = this.inputs.length;
+		int numHid = this.hidden.length;
+		int numOut = this.outputs.length;
 		
 		//Compute Input->Hidden Layer
-		for (int hid = 0; hid < hidden.length; hid++){
-			sum = 0.0d;
-			for (int in = 0; in < inputs.length; in++) sum += inputs[in] * ihW[in][hid];
-			sum+= ihW[inputs.length][hid];
-			hidden[hid] = activator.activate(sum); //Apply activation function
+		for (int hid = 0, row = 0; hid < numHid; hid++, row += numIn + 1){
+			double bias = ihW[row + numIn];
+			for (int s = 0, x = 0; s < count; s++, x += numIn){
+				double sum = 0.0d;
+				for (int in = 0; in < numIn; in++) sum += inputs[x + in] * ihW[row + in];
+				sum += bias;
+				hidden[s * numHid + hid] = activator.activate(sum); //Apply activation function
+			}
 		}
 	
 		//Compute Hidden->Output Layer
-		for (int out = 0; out < outputs.length; out++){
-			sum = 0.0d;
-			for (int hid = 0; hid < hidden.length; hid++)	sum += hidden[hid] * hoW[hid][out];		
-			sum+= hoW[hidden.length][out];
-			outputs[out] = activator.activate(sum); //Apply activation function
+		for (int out = 0, row = 0; out < numOut; out++, row += numHid + 1){
+			double bias = hoW[row + numHid];
+			for (int s = 0, h = 0; s < count; s++, h += numHid){
+				double sum = 0.0d;
+				for (int hid = 0; hid < numHid; hid++) sum += hidden[h + hid] * hoW[row + hid];		
+				sum += bias;
+				outputs[s * numOut + out] = activator.activate(sum); //Apply activation function
+			}
 		}
 	}
 	
@@ -108,11 +183,88 @@ public class NeuralNetwork implements Serializable{
 		return outputs;
 	}
 
-	public double[][] getHiddenWeights() {
+	//Flat input->hidden weights, see the layout above
+	public double[] getHiddenWeights() {
 		return ihW;
 	}
 
-	public double[][] getOutputWeights() {
+	//Flat hidden->output weights, see the layout above
+	public double[] getOutputWeights() {
 		return hoW;
 	}
+	
+	//Write the flat weights out as the original [from + 1][to] matrices
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("activator", activator);
+		fields.put("inputs", inputs);
+		fields.put("hidden", hidden);
+		fields.put("outputs", outputs);
+		fields.put("ihW", toMatrix(ihW, inputs.length, hidden.length));
+		fields.put("hoW", toMatrix(hoW, hidden.length, outputs.length));
+		out.writeFields();
+	}
+	
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		activator = (Activator) fields.get("activator", null);
+		inputs = (double[]) fields.get("inputs", null);
+		hidden = (double[]) fields.get("hidden", null);
+		outputs = (double[]) fields.get("outputs", null);
+		ihW = toFlat((double[][]) fields.get("ihW", null), inputs.length, hidden.length);
+		hoW = toFlat((double[][]) fields.get("hoW", null), hidden.length, outputs.length);
+	}
+	
+	private static double[][] toMatrix(double[] flat, int from, int to){
+		double[][] matrix = new double[from + 1][to];
+		for (int j = 0; j < to; j++){
+			for (int i = 0; i <= from; i++) matrix[i][j] = flat[j * (from + 1) + i];
+		}
+		return matrix;
+	}
+	
+	private static double[] toFlat(double[][] matrix, int from, int to){
+		double[] flat = new double[(from + 1) * to];
+		for (int j = 0; j < to; j++){
+			for (int i = 0; i <= from; i++) flat[j * (from + 1) + i] = matrix[i][j];
+		}
+		return flat;
+	}
+	
+	/*
+	 * Per-thread scratch buffers for process(Context). Fill in the inputs, call process and
+	 * read the outputs. For batches each row is stored one after the other.
+	 */
+	public static class Context {
+		private final int capacity;
+		private final double[] inputs;
+		private final double[] hidden;
+		private final double[] outputs;
+		
+		private Context(int num_input_nodes, int num_hidden_nodes, int num_output_nodes, int capacity) {
+			this.capacity = capacity;
+			this.inputs = new double[num_input_nodes * capacity];
+			this.hidden = new double[num_hidden_nodes * capacity];
+			this.outputs = new double[num_output_nodes * capacity];
+		}
+		
+		//Check the context was made for a network of this shape (e.g. after a model is reloaded)
+		public boolean fits(NeuralNetwork net) {
+			return inputs.length == net.inputs.length * capacity && hidden.length == net.hidden.length * capacity 
+					&& outputs.length == net.outputs.length * capacity;
+		}
+		
+		//Maximum number of rows in a batch
+		public int getCapacity() {
+			return capacity;
+		}
+		
+		public double[] getInputs() {
+			return inputs;
+		}
+		
+		public double[] getOutputs() {
+			return outputs;
+		}
+	}
 }
\ No newline at end of file
@@ -33,11 +33,16 @@ public class Utils {
 
     //Returns the index of the output layer with the highest value
     public static int getMaxIndex(double[] vector){
+		return getMaxIndex(vector, 0, vector.length);
+    }
+    
+    //Same as above for one row of a batch, returns the index within the row
+    public static int getMaxIndex(double[] vector, int offset, int length){
 		double max = Double.MIN_VALUE;
 		int maxIndex = -1;
-		for (int i = 0; i < vector.length;i++){
-			if (vector[i] > max){
-				max = vector[i];
+		for (int i = 0; i < length;i++){
+			if (vector[offset + i] > max){
+				max = vector[offset + i];
 				maxIndex = i;
 			}
 		}
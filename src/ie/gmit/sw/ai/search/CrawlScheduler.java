@@ -0,0 +1,373 @@
+package ie.gmit.sw.ai.search;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+* Decides when each request's searches run, sharing a fixed number of workers between every request.
+*
+* Previously each NodeParser started all its searches straight away, so fifty users meant 600+ searches all fetching
+* at once with nothing turning users away, and every request slowed down together until none finished.
+* Instead each request opens a Crawl and submits its searches to it. The scheduler runs at most getWorkers() platform
+* thread searches at once across every request, and hands each free worker to the next Crawl with a search waiting, in turn
+* (weighted round-robin), so a new request gets workers as soon as any search ends rather than after every
+* earlier request has finished. A Crawl with weight 2 starts two searches each turn, weight 1 starts one.
+*
+* The NodeParser gives recursive depth first searches RECURSIVE_WEIGHT, as each one holds its worker while it
+* descends through every relevant child, so they'd otherwise keep workers far longer than the other searches.
+*
+* Each request runs at most getRequestWorkers() searches at once, so one request can't take every worker. A Crawl at
+* its limit is taken off the ready list and put back when one of its searches ends.
+*
+* Crawls on virtual threads (see CrawlThreads) count against their own budget, getVirtualWorkers(), rather than the
+* platform workers. A waiting virtual thread doesn't hold an OS thread, so many more requests can crawl at once than
+* the platform pool allows.
+*
+* At most getMaxCrawls() requests can be crawling at once, either running or waiting for workers. Past that open()
+* throws a BusyException straight away, so the ServiceHandler can tell the user to try again rather than queue
+* them behind requests that won't finish for a long time.
+*
+* The searches are run on the executors from CrawlThreads, the scheduler only decides when.
+*
+* I have implemented a Singleton design pattern for this so every request shares the same workers, it's set up by the
+* ServiceHandler from the CRAWL_WORKERS, CRAWL_VIRTUAL_WORKERS, CRAWL_REQUEST_WORKERS and CRAWL_MAX_REQUESTS
+* context params in web.xml.
+*
+* @see NodeParser
+* @see CrawlThreads
+* @author Matthew Sloyan
+*/
+public class CrawlScheduler {
+
+	// Platform thread searches running at once across every request, about 16 requests with all their workers.
+	public static final int DEFAULT_WORKERS = 128;
+
+	// Virtual thread searches running at once across every request. A waiting virtual thread doesn't hold an OS thread,
+	// so these have their own, larger budget rather than sharing the platform workers.
+	public static final int DEFAULT_VIRTUAL_WORKERS = 1024;
+
+	// Searches running at once for one request, so a single request can't take every worker.
+	public static final int DEFAULT_REQUEST_WORKERS = 8;
+
+	// Requests crawling at once, running or waiting, before new requests are turned away.
+	public static final int DEFAULT_MAX_CRAWLS = 64;
+
+	// Searches started each turn, for searches that return their worker after each node.
+	public static final int DEFAULT_WEIGHT = 2;
+
+	// Searches started each turn, for searches that recurse and hold their worker for the whole descent.
+	public static final int RECURSIVE_WEIGHT = 1;
+
+	// Singleton design pattern.
+	private static CrawlScheduler instance = new CrawlScheduler();
+
+	private int workers = DEFAULT_WORKERS;
+	private int virtualWorkers = DEFAULT_VIRTUAL_WORKERS;
+	private int requestWorkers = DEFAULT_REQUEST_WORKERS;
+	private int maxCrawls = DEFAULT_MAX_CRAWLS;
+
+	// Crawls with searches waiting for a worker that are under their own limit, the first gets the next free worker.
+	private final LinkedList<Crawl> ready = new LinkedList<>();
+
+	private int crawls;
+	private int running;
+	private int runningVirtual;
+	private long rejected;
+
+	// private constructor, so no other class can create an instance.
+	private CrawlScheduler() {}
+
+	public static CrawlScheduler getInstance() {
+		return instance;
+	}
+
+	/**
+	* Sets the budget, called from ServiceHandler.init(). Values below 1 keep the default.
+	*
+	* @param workers platform thread searches running at once.
+	* @param virtualWorkers virtual thread searches running at once.
+	* @param requestWorkers searches running at once for one request.
+	* @param maxCrawls requests crawling at once.
+	*/
+	public synchronized void init(int workers, int virtualWorkers, int requestWorkers, int maxCrawls) {
+		if (workers > 0) {
+			this.workers = workers;
+		}
+		if (virtualWorkers > 0) {
+			this.virtualWorkers = virtualWorkers;
+		}
+		if (requestWorkers > 0) {
+			this.requestWorkers = requestWorkers;
+		}
+		if (maxCrawls > 0) {
+			this.maxCrawls = maxCrawls;
+		}
+		System.out.println("[INFO] Crawl scheduler: " + this.workers + " workers, " + this.virtualWorkers + " virtual workers, "
+				+ this.requestWorkers + " per request, " + this.maxCrawls + " requests");
+	}
+
+	/**
+	* Opens a Crawl for one request's searches.
+	*
+	* @param executor runs the searches, from CrawlThreads.
+	* @param weight searches started each turn, at least 1.
+	* @param virtual true if the executor runs searches on virtual threads, so they count against getVirtualWorkers().
+	* @throws BusyException if getMaxCrawls() requests are already crawling.
+	*/
+	public synchronized Crawl open(Executor executor, int weight, boolean virtual) throws BusyException {
+		if (crawls >= maxCrawls) {
+			rejected++;
+			throw new BusyException("Too many searches running, please try again shortly.");
+		}
+		crawls++;
+		return new Crawl(executor, Math.max(1, weight), virtual);
+	}
+
+	private synchronized void submit(Crawl crawl, Runnable search) {
+		if (crawl.closed) {
+			throw new RejectedExecutionException("Crawl has been shut down");
+		}
+
+		crawl.queued.add(search);
+		schedule(crawl);
+		dispatch();
+	}
+
+	// Puts a crawl at the back of the ready list if it has a search waiting and is under its limit. Called holding the lock.
+	private void schedule(Crawl crawl) {
+		if (!crawl.scheduled && !crawl.queued.isEmpty() && crawl.running < requestWorkers) {
+			crawl.scheduled = true;
+			crawl.turns = crawl.weight;
+			ready.addLast(crawl);
+		}
+	}
+
+	// Hands waiting searches to free workers, taking turns between the crawls. Called holding the lock.
+	private void dispatch() {
+		// A crawl whose pool (platform or virtual) is full is skipped, stop once every crawl left has been skipped in a row.
+		int skipped = 0;
+		while (skipped < ready.size()) {
+			Crawl crawl = ready.getFirst();
+			if (crawl.virtual ? runningVirtual >= virtualWorkers : running >= workers) {
+				ready.addLast(ready.removeFirst());
+				skipped++;
+				continue;
+			}
+			skipped = 0;
+
+			Runnable search = crawl.queued.poll();
+			start(crawl);
+
+			// Nothing else waiting or at its own limit, it's put back by schedule() when that changes.
+			if (crawl.queued.isEmpty() || crawl.running >= requestWorkers) {
+				ready.removeFirst();
+				crawl.scheduled = false;
+			}
+			// Its turn is over, so the next crawl goes first.
+			else if (--crawl.turns == 0) {
+				crawl.turns = crawl.weight;
+				ready.addLast(ready.removeFirst());
+			}
+
+			try {
+				crawl.executor.execute(() -> run(crawl, search));
+			} catch (RejectedExecutionException e) {
+				System.out.println("[INFO] Search couldn't be started: " + e.getMessage());
+				stop(crawl);
+				release(crawl);
+			}
+		}
+	}
+
+	// Counts a search as running against its pool and its crawl. Called holding the lock.
+	private void start(Crawl crawl) {
+		if (crawl.virtual) {
+			runningVirtual++;
+		}
+		else {
+			running++;
+		}
+		crawl.running++;
+	}
+
+	private void stop(Crawl crawl) {
+		if (crawl.virtual) {
+			runningVirtual--;
+		}
+		else {
+			running--;
+		}
+		crawl.running--;
+	}
+
+	private void run(Crawl crawl, Runnable search) {
+		try {
+			search.run();
+		} catch (RuntimeException e) {
+			System.out.println("[INFO] Search failed: " + e);
+		} finally {
+			finished(crawl);
+		}
+	}
+
+	private synchronized void finished(Crawl crawl) {
+		stop(crawl);
+		release(crawl);
+		schedule(crawl);
+		dispatch();
+	}
+
+	// Frees the request's place once it's shut down and its searches are done. Called holding the lock.
+	private void release(Crawl crawl) {
+		if (!crawl.released && crawl.isTerminated()) {
+			crawl.released = true;
+			crawls--;
+			notifyAll();
+		}
+	}
+
+	public synchronized int getWorkers() {
+		return workers;
+	}
+
+	public synchronized int getVirtualWorkers() {
+		return virtualWorkers;
+	}
+
+	public synchronized int getRequestWorkers() {
+		return requestWorkers;
+	}
+
+	public synchronized int getMaxCrawls() {
+		return maxCrawls;
+	}
+
+	/**
+	* Number of searches running now, across every request, on platform and virtual threads.
+	*/
+	public synchronized int getRunning() {
+		return running + runningVirtual;
+	}
+
+	/**
+	* Number of requests crawling now, running or waiting.
+	*/
+	public synchronized int getCrawls() {
+		return crawls;
+	}
+
+	/**
+	* Number of requests with searches waiting for a worker.
+	*/
+	public synchronized int getWaiting() {
+		return ready.size();
+	}
+
+	/**
+	* Number of requests turned away because the scheduler was busy.
+	*/
+	public synchronized long getRejected() {
+		return rejected;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d of %d workers and %d of %d virtual workers running, %d requests crawling (%d waiting), %d turned away",
+				running, workers, runningVirtual, virtualWorkers, crawls, ready.size(), rejected);
+	}
+
+	/**
+	* One request's searches, used like an ExecutorService: execute() each search, shutdown() once they've all been
+	* submitted, then awaitTermination() for the results.
+	*/
+	public class Crawl {
+
+		private final Executor executor;
+		private final int weight;
+		private final boolean virtual;
+		private final Queue<Runnable> queued = new LinkedList<>();
+
+		// Guarded by the CrawlScheduler.
+		private boolean scheduled;
+		private int turns;
+		private int running;
+		private boolean closed;
+		private boolean released;
+
+		private Crawl(Executor executor, int weight, boolean virtual) {
+			this.executor = executor;
+			this.weight = weight;
+			this.virtual = virtual;
+		}
+
+		/**
+		* Queues a search, to be run when this request gets a worker.
+		*/
+		public void execute(Runnable search) {
+			submit(this, search);
+		}
+
+		/**
+		* No more searches will be submitted. Searches already queued are still run.
+		*/
+		public void shutdown() {
+			synchronized (CrawlScheduler.this) {
+				closed = true;
+				release(this);
+			}
+		}
+
+		/**
+		* Drops the searches still waiting for a worker and shuts down. Searches already running are left to finish,
+		* the request's place is freed once they have.
+		*/
+		public void cancel() {
+			synchronized (CrawlScheduler.this) {
+				queued.clear();
+				ready.remove(this);
+				scheduled = false;
+				closed = true;
+				release(this);
+			}
+		}
+
+		/**
+		* Waits until the crawl is shut down and all its searches have run, or the timeout passes.
+		*
+		* @return true if the crawl finished, false if the timeout passed first.
+		*/
+		public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			synchronized (CrawlScheduler.this) {
+				while (!isTerminated()) {
+					long left = deadline - System.nanoTime();
+					if (left <= 0) {
+						return false;
+					}
+					TimeUnit.NANOSECONDS.timedWait(CrawlScheduler.this, left);
+				}
+				return true;
+			}
+		}
+
+		// Called holding the scheduler's lock.
+		private boolean isTerminated() {
+			return closed && running == 0 && queued.isEmpty();
+		}
+	}
+
+	/**
+	* Thrown by open() when too many requests are crawling.
+	*/
+	public static class BusyException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		public BusyException(String message) {
+			super(message);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package ie.gmit.sw.ai.search;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import ie.gmit.sw.ai.search.models.Options;
+
+/**
+* Creates the threads that run the searches.
+*
+* Previously every request made a new cached thread pool, so with many users there could be thousands of platform threads,
+* each blocked waiting on pages, using memory for their stacks and time in the scheduler.
+* The threads option picks how searches are run:
+*
+* - 1 = Platform threads, from one cached thread pool shared by every request.
+* - 2 = Virtual threads, one per search. A virtual thread that waits for a page doesn't hold an OS thread.
+*   Virtual threads need Java 21, on older versions platform threads are used.
+*
+* How many searches run at once is decided by the CrawlScheduler, which only hands a search to these executors when
+* there's a worker free, so the platform pool never has more threads than the scheduler's worker budget. Virtual thread
+* searches have their own, larger budget in the scheduler, so that mode lets more searches run at once, not just on
+* different threads.
+*
+* Java 11 is still the minimum, so Executors.newVirtualThreadPerTaskExecutor() is found by reflection.
+*
+* I have implemented a Singleton design pattern for this so every request shares the same threads.
+*
+* @see CrawlScheduler
+* @see Options
+* @author Matthew Sloyan
+*/
+public class CrawlThreads {
+
+	// Singleton design pattern.
+	private static CrawlThreads instance = new CrawlThreads();
+
+	// Daemon threads, so they don't keep the server running once it's stopped.
+	private final ExecutorService platform = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "crawl-search");
+		t.setDaemon(true);
+		return t;
+	});
+
+	// Executors.newVirtualThreadPerTaskExecutor(), or null if this Java doesn't have virtual threads.
+	private final ExecutorService virtual;
+
+	// private constructor, so no other class can create an instance.
+	private CrawlThreads() {
+		ExecutorService executor = null;
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			executor = (ExecutorService) method.invoke(null);
+		} catch (NoSuchMethodException e) {
+			System.out.println("[INFO] Virtual threads need Java 21, platform threads will be used");
+		} catch (ReflectiveOperationException e) {
+			System.out.println("[INFO] Couldn't create virtual threads, platform threads will be used");
+		}
+		virtual = executor;
+	}
+
+	public static CrawlThreads getInstance() {
+		return instance;
+	}
+
+	/**
+	* Gets the executor that runs searches, shared by every request so it must not be shut down.
+	*
+	* @param threads 1 = Platform threads, 2 = Virtual threads.
+	*/
+	public ExecutorService getExecutor(int threads) {
+		if (isVirtual(threads)) {
+			return virtual;
+		}
+		return platform;
+	}
+
+	/**
+	* Whether getExecutor() runs searches on virtual threads for this option.
+	*/
+	public boolean isVirtual(int threads) {
+		return threads == 2 && virtual != null;
+	}
+
+	public boolean hasVirtualThreads() {
+		return virtual != null;
+	}
+}
@@ -0,0 +1,180 @@
+package ie.gmit.sw.ai.search;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+* Precompiled set of search terms used to count close matches (scoring option 2) in a section of text.
+* A word is a close match to a term if the Levenshtein distance between them is <= MAX_DISTANCE.
+* The Levenshtein distance between "kitten" and "sitting" is 3, as only three changes are needed.
+*
+* Previously the full Levenshtein table (word length x term length) was calculated for every word, and both strings were
+* lower cased on every call, only to compare the distance with 3 at the end. As only distances up to 3 matter:
+*
+* - Each term is lower cased once when the matcher is compiled.
+* - Words whose length differs from a term by more than 3 can't match, so they're rejected without any work,
+*   and words longer than every term + 3 are skipped completely.
+* - Only the diagonal band of the table within 3 of the diagonal is calculated (Ukkonen), which is 7 cells per row
+*   rather than the whole row, and the word is rejected as soon as every cell in a row is > 3.
+*
+* The words are split by the Tokenizer and lower cased in the same way as toLowerCase(), so the counts are
+* exactly the same as before.
+*
+* Code adapted from: https://rosettacode.org/wiki/Levenshtein_distance#Java
+*
+* @see Scoring
+* @see TermMatcher
+* @see Tokenizer
+* @author Matthew Sloyan
+*/
+public final class LevenshteinMatcher {
+
+	public static final int MAX_DISTANCE = 3;
+
+	// Any distance above MAX_DISTANCE is stored as this, so the band never needs values outside it.
+	private static final int TOO_FAR = MAX_DISTANCE + 1;
+
+	// Compiled matchers, held until the search's list of terms is no longer used.
+	private static final Map<List<String>, LevenshteinMatcher> matchers = Collections.synchronizedMap(new WeakHashMap<>());
+
+	private final char[][] terms; // Lower cased terms.
+	private final int maxWordLength; // Longest word that can be close to any term.
+
+	// String.toLowerCase() is different to lower casing each char for these languages, so always use it.
+	private final boolean localeLowerCase;
+
+	private LevenshteinMatcher(List<String> list) {
+		terms = new char[list.size()][];
+		int longest = 0;
+		for (int t = 0; t < terms.length; t++) {
+			terms[t] = list.get(t).toLowerCase().toCharArray();
+			longest = Math.max(longest, terms[t].length);
+		}
+		maxWordLength = longest + MAX_DISTANCE;
+
+		String language = Locale.getDefault().getLanguage();
+		localeLowerCase = language.equals("tr") || language.equals("az") || language.equals("lt");
+	}
+
+	/**
+	* Gets the matcher for a search's terms, compiling it the first time it's used.
+	*
+	* @param terms search terms.
+	* @return compiled matcher.
+	*/
+	public static LevenshteinMatcher forTerms(List<String> terms) {
+		LevenshteinMatcher matcher = matchers.get(terms);
+		if (matcher == null) {
+			matcher = new LevenshteinMatcher(terms);
+			matchers.put(terms, matcher);
+		}
+		return matcher;
+	}
+
+	/**
+	* Adds weight to the count of each term every time a word in s is close to it.
+	* The count for term t is at counts[t * stride + offset], the same as TermMatcher.count().
+	*
+	* @param s text to search.
+	* @param counts array of counts to add to.
+	* @param stride distance between the counts of each term.
+	* @param offset position of the count within each term's row.
+	* @param weight amount added for each match.
+	*/
+	public void count(String s, int[] counts, int stride, int offset, int weight) {
+		// Working arrays, only allocated once for the whole string.
+		char[] word = new char[maxWordLength];
+		int[] previous = new int[maxWordLength + 1];
+		int[] current = new int[maxWordLength + 1];
+
+		Tokenizer.split(s, (text, start, length) -> {
+			int wordLength = lowerCase(text, start, length, word);
+
+			if (wordLength <= maxWordLength) {
+				for (int t = 0; t < terms.length; t++) {
+					if (isClose(word, wordLength, terms[t], previous, current)) {
+						counts[t * stride + offset] += weight;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	* Lower cases a word into the buffer the same way as toLowerCase().
+	* Each char is lower cased on its own unless the word has chars that depend on the chars around them
+	* (or the locale), then the whole word is lower cased with toLowerCase().
+	*
+	* @return length of the lower case word, if it's longer than maxWordLength the buffer isn't filled.
+	*/
+	private int lowerCase(CharSequence text, int start, int length, char[] word) {
+		boolean special = localeLowerCase;
+		for (int i = 0; i < length && !special; i++) {
+			char c = text.charAt(start + i);
+			special = c == '\u0130' || c == '\u03A3' || Character.isSurrogate(c);
+		}
+
+		if (special) {
+			String lower = text.subSequence(start, start + length).toString().toLowerCase();
+			if (lower.length() <= maxWordLength) {
+				lower.getChars(0, lower.length(), word, 0);
+			}
+			return lower.length();
+		}
+
+		if (length <= maxWordLength) {
+			for (int i = 0; i < length; i++) {
+				word[i] = Character.toLowerCase(text.charAt(start + i));
+			}
+		}
+		return length;
+	}
+
+	/**
+	* Checks if the Levenshtein distance between a word and a term is <= MAX_DISTANCE.
+	* Only the cells within MAX_DISTANCE of the diagonal are calculated, cells outside the band can't be <= MAX_DISTANCE.
+	*
+	* @return true if the word is close to the term.
+	*/
+	private static boolean isClose(char[] word, int wordLength, char[] term, int[] previous, int[] current) {
+		int termLength = term.length;
+		if (Math.abs(wordLength - termLength) > MAX_DISTANCE) {
+			return false;
+		}
+
+		for (int j = 0; j <= termLength; j++) {
+			previous[j] = Math.min(j, TOO_FAR);
+		}
+
+		for (int i = 1; i <= wordLength; i++) {
+			int from = Math.max(1, i - MAX_DISTANCE);
+			int to = Math.min(termLength, i + MAX_DISTANCE);
+			char c = word[i - 1];
+
+			current[from - 1] = from == 1 ? Math.min(i, TOO_FAR) : TOO_FAR;
+			int best = current[from - 1];
+
+			for (int j = from; j <= to; j++) {
+				int cost = Math.min(1 + Math.min(previous[j], current[j - 1]), c == term[j - 1] ? previous[j - 1] : previous[j - 1] + 1);
+				current[j] = Math.min(cost, TOO_FAR);
+				best = Math.min(best, current[j]);
+			}
+			if (to < termLength) {
+				current[to + 1] = TOO_FAR;
+			}
+
+			// Every cell in the band is already too far, it can only get bigger.
+			if (best > MAX_DISTANCE) {
+				return false;
+			}
+
+			int[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+		return previous[termLength] <= MAX_DISTANCE;
+	}
+}
@@ -7,18 +7,18 @@ import java.util.List;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListSet;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
-import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 
 import ie.gmit.sw.ai.cloud.WordFrequency;
+import ie.gmit.sw.ai.search.database.ResultStore;
 import ie.gmit.sw.ai.search.database.ResultsDatabaseProxy;
+import ie.gmit.sw.ai.search.fetch.PageCache;
+import ie.gmit.sw.ai.search.fetch.PageFetcher;
 import ie.gmit.sw.ai.search.models.DocumentNode;
 import ie.gmit.sw.ai.search.models.Files;
 import ie.gmit.sw.ai.search.models.Options;
@@ -27,11 +27,17 @@ import ie.gmit.sw.ai.search.searches.BestFirstSearch;
 import ie.gmit.sw.ai.search.searches.RecursiveDepthFirstSearch;
 
 /**
-* Parsers all links from duck duck go search and runs search algorithms using an ExecutorService.
+* Parsers all links from duck duck go search and runs search algorithms using the CrawlScheduler.
 * Also gets results from database to pass back to ServiceHandler.
 * 
+* If the same query was searched recently with the same options, the results are taken from the ResultStore
+* and no search is run.
+* 
 * @see Options
 * @see ResultsDatabaseProxy
+* @see ResultStore
+* @see CrawlScheduler
+* @see CrawlThreads
 * @see BestFirstSearch
 * @see BeamSearch
 * @see RecursiveDepthFirstSearch
@@ -40,6 +46,9 @@ import ie.gmit.sw.ai.search.searches.RecursiveDepthFirstSearch;
 public class NodeParser implements Parseable{
 	
 	static final int BRANCING_FACTOR = 12;
+	
+	// Longest a request waits for its searches, 5 minutes. After that the results found so far are returned.
+	static final long CRAWL_TIMEOUT = 5 * 60 * 1000;
 
 	// Search queues and sets.
 	// Used a PriorityBlockingQueue for the best first search, as it's concurrent and is sorted by score.
@@ -47,8 +56,8 @@ public class NodeParser implements Parseable{
 	private Queue<DocumentNode> queue = new PriorityBlockingQueue<>(20, Comparator.comparing(DocumentNode::getScore).reversed());
 	private LinkedList<DocumentNode> queueBeam = new LinkedList<>();
 	
-	// Thread pool
-	private ExecutorService es = Executors.newCachedThreadPool();
+	// This request's searches, run on platform or virtual threads depending on the options when there's a worker free.
+	private CrawlScheduler.Crawl crawl;
 	
 	// Database Proxy to be passed into searches.
 	private ResultsDatabaseProxy db;
@@ -57,18 +66,29 @@ public class NodeParser implements Parseable{
 	private String url;
 	private String searchTerm;
 	private Options options; // Composition
+	
+	// Results from the ResultStore, if the query was searched recently.
+	private WordFrequency[] stored;
 
+	/**
+	* @throws CrawlScheduler.BusyException if the query has to be searched and too many requests are already crawling.
+	*/
 	public NodeParser(String url, String searchTerm, Options options) throws Exception {
 		this.url = url;
 		this.searchTerm = searchTerm;
 		this.options = options;
-		db = new ResultsDatabaseProxy();
+		db = new ResultsDatabaseProxy(options);
 		
-		parse();
+		stored = ResultStore.getInstance().get(searchTerm, options);
+		if (stored == null) {
+			CrawlThreads threads = CrawlThreads.getInstance();
+			crawl = CrawlScheduler.getInstance().open(threads.getExecutor(options.getThreads()), getWeight(options), threads.isVirtual(options.getThreads()));
+			parse();
+		}
 	}
 
 	/**
-	* Parsers all links from duck duck go search and runs search algorithms using an ExecutorService.
+	* Parsers all links from duck duck go search and runs search algorithms using the CrawlScheduler.
 	* Handles multiple search terms using an ArrayList.
 	* 
 	* @see BestFirstSearch
@@ -80,7 +100,7 @@ public class NodeParser implements Parseable{
 		
 		try {
 			// Get links from duck duck go search.
-			Document doc = Jsoup.connect(url).get();
+			Document doc = PageFetcher.getInstance().get(url);
 			Elements res = doc.getElementById("links").getElementsByClass("results_links");
 			
 			// Handle multiple search terms.
@@ -112,13 +132,13 @@ public class NodeParser implements Parseable{
 				// Run search algorithm depending on option selected by the user.
 				switch (options.getSearch()) {
 					case 1:
-						es.execute(new BestFirstSearch(closed, queue, link, searchTerms, options, db));
+						execute(new BestFirstSearch(closed, queue, link, searchTerms, options, db));
 						break;
 					case 2:
-						es.execute(new RecursiveDepthFirstSearch(closed, link, searchTerms, options, db));
+						execute(new RecursiveDepthFirstSearch(closed, link, searchTerms, options, db));
 						break;
 					case 3:
-						es.execute(new BeamSearch(closed, queueBeam, link, searchTerms, options, db));
+						execute(new BeamSearch(closed, queueBeam, link, searchTerms, options, db));
 						break;
 					default:
 						break;
@@ -130,22 +150,59 @@ public class NodeParser implements Parseable{
 			System.out.println("Error, please try again.");
 		}
 		
-		// Shutdown ExecutorService
-		es.shutdown();
+		// No more searches for this request.
+		crawl.shutdown();
+	}
+
+	/**
+	* Searches started each turn by the CrawlScheduler. Recursive depth first searches hold their worker for the whole
+	* descent, so they get fewer turns than the searches that return to the shared queue after each node.
+	* 
+	* @see CrawlScheduler
+	*/
+	private static int getWeight(Options options) {
+		return options.getSearch() == 2 ? CrawlScheduler.RECURSIVE_WEIGHT : CrawlScheduler.DEFAULT_WEIGHT;
+	}
+
+	/**
+	* Queues a search, to be run when this request gets a worker.
+	* 
+	* @see CrawlScheduler
+	*/
+	private void execute(Runnable search) {
+		crawl.execute(search);
 	}
 
 	/**
 	* Wait for threads to finish and get sorted results from database to pass back to ServiceHandler.
+	* The results are kept in the ResultStore for the next time the query is searched.
+	* If the searches take longer than CRAWL_TIMEOUT, the ones not started yet are dropped and the results so far are
+	* returned, but not stored as they're incomplete.
 	* 
 	* @see ResultsDatabaseProxy
+	* @see ResultStore
 	*/
 	public WordFrequency[] getResults() {
+		if (stored != null) {
+			return stored;
+		}
+		
+		boolean finished = false;
 		try {
-		  es.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			finished = crawl.awaitTermination(CRAWL_TIMEOUT, TimeUnit.MILLISECONDS);
 		} catch (InterruptedException e) {
 		}
 		
-		return db.getResults(options.getWordCloudNum());
+		if (!finished) {
+			System.out.println("[INFO] Search for \"" + searchTerm + "\" didn't finish in time, returning results so far");
+			crawl.cancel();
+		}
+		
+		WordFrequency[] results = db.getResults(options.getWordCloudNum());
+		if (finished) {
+			ResultStore.getInstance().put(searchTerm, options, results);
+		}
+		return results;
 	}
 
 	// Testing.
@@ -157,7 +214,11 @@ public class NodeParser implements Parseable{
 		fileNames.add("WebContent/res/heuristic.fcl");
 		fileNames.add("WebContent/res/model.eg");
 		fileNames.add("WebContent/res/model.ser");
+		fileNames.add(System.getProperty("java.io.tmpdir") + "/wcloud/results"); // Not under WebContent, it would be served.
+		fileNames.add(System.getProperty("java.io.tmpdir") + "/wcloud/pages");
 		Files.getInstance().setFileNames(fileNames);
+		ResultStore.getInstance().init();
+		PageCache.getInstance().init(false);
 		
 		// search = Search algo used (BFS, DFS, BS)
 		// heuristic = AI heuristic used (Fuzzy, Encog)
@@ -1,20 +1,30 @@
 package ie.gmit.sw.ai.search;
 
+import java.util.Collections;
+import java.util.List;
+
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 
+import ie.gmit.sw.ai.search.heuristics.CachedHeuristic;
 import ie.gmit.sw.ai.search.heuristics.CustomAIHeuristic;
 import ie.gmit.sw.ai.search.heuristics.EncogHeuristic;
 import ie.gmit.sw.ai.search.heuristics.FuzzyHeuristic;
+import ie.gmit.sw.ai.search.heuristics.Heuristicable;
 import ie.gmit.sw.ai.search.models.Options;
 import ie.gmit.sw.ai.search.models.WebPage;
+import ie.gmit.sw.ai.search.pipeline.PagePipeline;
 
 /**
 * Scores a document using a AI heuristic search method (Fuzzy, Encog or Custom NN).
 * Scoring is determined on four types (Meta tags, title, headings and the body.)
 * More information on these can be found below.
 * 
+* A document is scored for every search term at once. Each section of the page is extracted and split into words
+* once, and each word is checked against all the terms, rather than creating a Scoring per term which would extract
+* and split the whole page again for every word in the query.
+* 
 * @author Matthew Sloyan
 */
 public class Scoring {
@@ -23,18 +33,53 @@ public class Scoring {
 	private static final int TITLE_WEIGHT = 50;
 	private static final int HEADING_WEIGHT = 10;
 	private static final int BODY_WEIGHT = 5;
+	
+	// Column of each section in a row of features.
+	private static final int META = 0;
+	private static final int TITLE = 1;
+	private static final int HEADINGS = 2;
+	private static final int BODY = 3;
 
 	// Instance variables
 	private Document doc;
-	private String term;
+	private List<String> terms;
 	private Options options;
+	private TermMatcher matcher;
+	private LevenshteinMatcher closeMatcher;
+	
+	// Extracted text, shared by the WebPage for every term and used again for indexing. Set by extract().
+	private String metas = "";
+	private String title = "";
+	private String headings = "";
+	private String body = "";
+	
+	// Weighted frequencies, one row of (meta, title, headings, body) for each term. Set by extract().
+	private int[] features;
 
 	// Constructor
 	public Scoring(Document doc, String term, Options options) {
+		this(doc, Collections.singletonList(term), options);
+	}
+	
+	/**
+	* Scores a document for every search term in one pass.
+	* 
+	* @param doc document to score.
+	* @param terms lower case search terms.
+	* @param options user options.
+	*/
+	public Scoring(Document doc, List<String> terms, Options options) {
 		super();
 		this.doc = doc;
-		this.term = term;
+		this.terms = terms;
 		this.options = options;
+		
+		if (options.getScoring() == 1) {
+			matcher = TermMatcher.forTerms(terms);
+		}
+		if (options.getScoring() == 2) {
+			closeMatcher = LevenshteinMatcher.forTerms(terms);
+		}
 	}
 
 	/**
@@ -57,27 +102,87 @@ public class Scoring {
 	* 
 	* @see FuzzyHeuristic
 	* @see EncogHeuristic
-	* @return WebPage
+	* @return WebPage for the first search term.
 	*/
 	public WebPage getHeuristicScore() {
-		String metas = "";
-		String title = "";
-		String body = "";
+		return getHeuristicScores()[0];
+	}
+
+	/**
+	* Same as getHeuristicScore() but for every search term, with all terms scored by the heuristic in one batch.
+	* 
+	* @return WebPage for each search term, in the same order as the terms.
+	*/
+	public WebPage[] getHeuristicScores() {
+		return getHeuristicScores(Collections.singletonList(this), options);
+	}
+
+	/**
+	* Scores a batch of pages with one call to the heuristic, rather than one call per page.
+	* This is used by the searches to score every child of an expanded node (and every search term) together,
+	* which lets the neural network heuristics run the whole batch through the network in one pass.
+	* Each page is extracted the same way as getHeuristicScore().
+	* 
+	* @see Heuristicable
+	* @param pages pages to score, all using the same options and search terms.
+	* @param options user options, used to pick the heuristic.
+	* @return WebPage for each page and term, page i term t is at i * terms + t.
+	*/
+	public static WebPage[] getHeuristicScores(List<Scoring> pages, Options options) {
+		int rows = 0;
+		for (Scoring page : pages) {
+			rows += page.terms.size();
+		}
+		
+		int[] features = new int[rows * Heuristicable.FEATURES];
+		int[] scores = new int[rows];
+
+		int row = 0;
+		for (Scoring page : pages) {
+			page.extract();
+			System.arraycopy(page.features, 0, features, row * Heuristicable.FEATURES, page.features.length);
+			row += page.terms.size();
+		}
+
+		Heuristicable heuristic = getHeuristic(options);
+		if (heuristic != null && rows > 0) {
+			heuristic.getHeuristicScores(features, rows, scores);
+		}
+
+		WebPage[] results = new WebPage[rows];
+		row = 0;
+		for (Scoring page : pages) {
+			for (int t = 0; t < page.terms.size(); t++, row++) {
+				results[row] = page.getWebPage(t, scores[row]);
+			}
+		}
+		return results;
+	}
+
+	/**
+	* Gets the text for each section of the page and the weighted frequency of every search term in each.
+	* Each section is only extracted and split once however many terms there are.
+	* This is done by getHeuristicScores() if it hasn't been already, the PagePipeline does it in its own stage
+	* so the heuristic stage only runs the heuristic.
+	* 
+	* @see PagePipeline
+	*/
+	public void extract() {
+		if (features != null) {
+			return;
+		}
+		
+		features = new int[terms.size() * Heuristicable.FEATURES];
 		StringBuilder headerSb = new StringBuilder();
-		int metaScore = 0;
-		int titleScore = 0;
-		int headingScore = 0;
-		int bodyScore = 0;
-		int score = 0;
 
 		// == Meta Tags ==
 		try {
 			// https://www.javatpoint.com/jsoup-example-print-meta-data-of-an-url
 			String keywords = doc.select("meta[name=keywords]").attr("content");
-			metaScore += getFrequency(keywords) * META_WEIGHT;
+			addFrequencies(keywords, META, META_WEIGHT);
 			
 			String description = doc.select("meta[name=description]").attr("content");
-			metaScore += getFrequency(description) * META_WEIGHT;
+			addFrequencies(description, META, META_WEIGHT);
 
 			metas = description + keywords;
 		} catch (Exception e1) {
@@ -86,77 +191,86 @@ public class Scoring {
 
 		// == Title ==
 		title = doc.title();
-		titleScore = getFrequency(title) * TITLE_WEIGHT;
+		addFrequencies(title, TITLE, TITLE_WEIGHT);
 
 		// == Headings == 
-		Elements headings = doc.select("h1, h2, h3");
-		for (Element heading : headings) {
+		Elements headingElements = doc.select("h1, h2, h3");
+		for (Element heading : headingElements) {
 			String h = heading.text();
-			headingScore += getFrequency(h) * HEADING_WEIGHT;
+			addFrequencies(h, HEADINGS, HEADING_WEIGHT);
 			headerSb.append(" " + h);
 		}
+		headings = headerSb.toString();
 
 		// == Body ==
 		try {
 			body = doc.body().text(); // Check for null
-			bodyScore = getFrequency(body) * BODY_WEIGHT;
+			addFrequencies(body, BODY, BODY_WEIGHT);
 			
 		} catch (Exception e) {
 			body = "";
 		}
 		
 		//System.out.println("{" + metaScore + ", " + titleScore + ", " + metaScore + ", " + bodyScore + "},");
+	}
 
-		// == Get Heuristic Score ==
-		if (options.getHeuristic() == 1) {
-			score = new FuzzyHeuristic().getHeuristicScore(metaScore, titleScore, headingScore, bodyScore);
-		} 
-		else if (options.getHeuristic() == 2) {
-			score = new EncogHeuristic().getHeuristicScore(metaScore, titleScore, headingScore, bodyScore);
-		} 
-		else if (options.getHeuristic() == 3) {
-			score = new CustomAIHeuristic().getHeuristicScore(metaScore, titleScore, headingScore, bodyScore);
-		}
+	/**
+	* Builds the WebPage for a search term to return to the search once the page has been scored.
+	*/
+	private WebPage getWebPage(int term, int score) {
+		String text = body;
 		
 		// Only add certain words if score is medium.
 		// Update body with just close words to search term.
 		if (score == 1) {
-			body = getCloseWords(body);
+			text = getCloseWords(body, terms.get(term));
 		}
 
 		// Return webpage details to 
-		return new WebPage(metas, title, headerSb.toString(), body, score);
+		return new WebPage(metas, title, headings, text, score);
 	}
 
 	/**
-	* Gets a score for a given string based on the search term.
+	* Gets the heuristic selected by the user (Fuzzy, Encog or Custom NN).
+	* Each is wrapped in a CachedHeuristic so repeated inputs skip the heuristic entirely.
+	* 
+	* @see CachedHeuristic
+	*/
+	private static Heuristicable getHeuristic(Options options) {
+		if (options.getHeuristic() == 1) {
+			return new CachedHeuristic(new FuzzyHeuristic(), 1);
+		} 
+		else if (options.getHeuristic() == 2) {
+			return new CachedHeuristic(new EncogHeuristic(), 2);
+		} 
+		else if (options.getHeuristic() == 3) {
+			return new CachedHeuristic(new CustomAIHeuristic(), 3);
+		}
+		return null;
+	}
+
+	/**
+	* Adds the weighted frequency of every search term in a string to its column of features.
 	* The frequency can use two methods, which are determined by the user options (Frequency of word, or Levenshtein distance.)
 	* 
 	* If option 1 is selected, the score is based on how many number of times the word occurs in the string (Faster)
+	* This is counted for all terms in one scan of the string by the TermMatcher.
+	* 
 	* If option 2 is selected, the score is based on if the Levenshtein distance between a word and the search term is <= 3. 
-	* This will give similar words to the search term.
+	* This will give similar words to the search term. This is also counted for all terms in one scan by the LevenshteinMatcher.
 	* 
-	* @return frequency
+	* @see TermMatcher
+	* @see LevenshteinMatcher
 	*/
-	private int getFrequency(String s) {
-		// Check for the frequency of "term" in s
-		int frequency = 0;
-		for (String word : s.split(" ")) {
-			// Frequency
-			if (options.getScoring() == 1) {
-				if (term.equalsIgnoreCase(word)) {
-					frequency++;
-				}
-			}
-			// Levenshtein
-			if (options.getScoring() == 2){
-				if (calculateLevenshtein(word, term) <= 3) {
-					frequency++;
-				}
-			}
+	private void addFrequencies(String s, int column, int weight) {
+		// Frequency
+		if (options.getScoring() == 1) {
+			matcher.count(s, features, Heuristicable.FEATURES, column, weight);
+		}
+		// Levenshtein
+		if (options.getScoring() == 2) {
+			closeMatcher.count(s, features, Heuristicable.FEATURES, column, weight);
 		}
-		
-		return frequency;
 	}
 
 	/**
@@ -168,52 +282,27 @@ public class Scoring {
 	* 
 	* @return string of close words.
 	*/
-	private String getCloseWords(String s) {
+	private String getCloseWords(String s, String term) {
 		StringBuilder words = new StringBuilder();
 		int wordDistance = 3;
 		
-		String[] strings = s.split(" ");
+		// Position of each word, rather than a String for each.
+		Tokenizer.Spans spans = new Tokenizer.Spans();
+		Tokenizer.split(s, spans);
 		
-		for (int i = 0; i < strings.length; i++) { 
+		for (int i = 0; i < spans.size(); i++) { 
 			
-		    if (term.equalsIgnoreCase(strings[i])) {
-		    	try {
-		    		// Add the three words to the left and right of found word.
-					for (int j = i - wordDistance; j < i + wordDistance; j++) {
-						words.append(strings[j]);
-					}
-				} catch (Exception e) {
-				}
+		    if (spans.length(i) == term.length() && s.regionMatches(true, spans.start(i), term, 0, term.length())) {
+		    	// Add the three words to the left and right of found word.
+		    	// Only if there are three words to the left, and stop at the end of the string.
+		    	if (i - wordDistance >= 0) {
+		    		for (int j = i - wordDistance; j < i + wordDistance && j < spans.size(); j++) {
+		    			words.append(s, spans.start(j), spans.end(j));
+		    		}
+		    	}
 		    }
 		}
 
 		return words.toString();
 	}
-
-	/**
-	* Calculate the Levenshtein distance between two words. 
-	* The Levenshtein distance between "kitten" and "sitting" is 3, as only three changes are needed.
-	* Code Adapted from: https://rosettacode.org/wiki/Levenshtein_distance#Java
-	* 
-	* @return distance
-	*/
-	private int calculateLevenshtein(String word, String term) {
-		word = word.toLowerCase();
-		term = term.toLowerCase();
-
-		int[] cost = new int[term.length() + 1];
-		for (int j = 0; j < cost.length; j++)
-			cost[j] = j;
-		for (int i = 1; i <= word.length(); i++) {
-			cost[0] = i;
-
-			int nw = i - 1;
-			for (int j = 1; j <= term.length(); j++) {
-				int cj = Math.min(1 + Math.min(cost[j], cost[j - 1]), word.charAt(i - 1) == term.charAt(j - 1) ? nw : nw + 1);
-				nw = cost[j];
-				cost[j] = cj;
-			}
-		}
-		return cost[term.length()];
-	}
 }
@@ -0,0 +1,165 @@
+package ie.gmit.sw.ai.search;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+* Precompiled set of search terms used to count exact matches (scoring option 1) in a section of text.
+*
+* Previously each section was split into a String per word, and every word was compared against every term with
+* equalsIgnoreCase(), which is O(words x terms) and allocates the whole array of words.
+* Instead the terms are case folded and put in a small open addressing hash table once per search. The text is then
+* split once by the Tokenizer, and each word is hashed in place, so each word costs one table lookup however many terms
+* there are, and nothing is allocated.
+*
+* Words are compared case-insensitively in the same way as equalsIgnoreCase(), so the counts are exactly the same as before.
+*
+* The matcher for a list of terms is compiled once and shared by every page scored in that search (see forTerms()).
+* It isn't changed after it's compiled, so any number of threads can use it.
+*
+* @see Scoring
+* @see Tokenizer
+* @author Matthew Sloyan
+*/
+public final class TermMatcher {
+
+	// Compiled matchers, held until the search's list of terms is no longer used.
+	private static final Map<List<String>, TermMatcher> matchers = Collections.synchronizedMap(new WeakHashMap<>());
+
+	// Case folding for ASCII, other chars use fold().
+	private static final char[] ASCII = new char[128];
+
+	static {
+		for (char c = 0; c < 128; c++) {
+			ASCII[c] = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+		}
+	}
+
+	private final char[][] terms; // Case folded terms.
+	private final int[] hashes;
+	private final int[] next; // Next term with the same text, or -1. Only the first is in the table.
+	private final int[] table; // Term index + 1, 0 is empty.
+	private final int mask;
+	private final int maxLength;
+
+	private TermMatcher(List<String> list) {
+		int count = list.size();
+		terms = new char[count][];
+		hashes = new int[count];
+		next = new int[count];
+
+		int size = Integer.highestOneBit(Math.max(2, count * 2) - 1) << 1;
+		table = new int[size];
+		mask = size - 1;
+
+		int longest = 0;
+		int[] last = new int[count]; // Last term in each chain, so duplicates keep their order.
+
+		for (int t = 0; t < count; t++) {
+			String term = list.get(t);
+			char[] folded = new char[term.length()];
+			int h = 0;
+			for (int i = 0; i < folded.length; i++) {
+				folded[i] = fold(term.charAt(i));
+				h = 31 * h + folded[i];
+			}
+			terms[t] = folded;
+			hashes[t] = h;
+			next[t] = -1;
+			longest = Math.max(longest, folded.length);
+
+			// Add to the table, or to the end of the chain if the same term is already there.
+			int slot = Tokenizer.spread(h) & mask;
+			while (true) {
+				int first = table[slot] - 1;
+				if (first < 0) {
+					table[slot] = t + 1;
+					last[t] = t;
+					break;
+				}
+				if (hashes[first] == h && Arrays.equals(terms[first], folded)) {
+					next[last[first]] = t;
+					last[first] = t;
+					break;
+				}
+				slot = (slot + 1) & mask;
+			}
+		}
+		maxLength = longest;
+	}
+
+	/**
+	* Gets the matcher for a search's terms, compiling it the first time it's used.
+	*
+	* @param terms search terms.
+	* @return compiled matcher.
+	*/
+	public static TermMatcher forTerms(List<String> terms) {
+		TermMatcher matcher = matchers.get(terms);
+		if (matcher == null) {
+			matcher = new TermMatcher(terms);
+			matchers.put(terms, matcher);
+		}
+		return matcher;
+	}
+
+	/**
+	* Adds weight to the count of each term every time it occurs as a word in s.
+	* The count for term t is at counts[t * stride + offset], so the counts can be written straight into a batch of features.
+	*
+	* @param s text to search.
+	* @param counts array of counts to add to.
+	* @param stride distance between the counts of each term.
+	* @param offset position of the count within each term's row.
+	* @param weight amount added for each match.
+	*/
+	public void count(String s, int[] counts, int stride, int offset, int weight) {
+		Tokenizer.split(s, (text, start, length) -> {
+			if (length <= maxLength) {
+				int t = find(text, start, length);
+				for (; t >= 0; t = next[t]) {
+					counts[t * stride + offset] += weight;
+				}
+			}
+		});
+	}
+
+	// Finds the first term equal to s[start, start + length), or -1.
+	private int find(CharSequence s, int start, int length) {
+		int h = 0;
+		for (int i = start; i < start + length; i++) {
+			h = 31 * h + fold(s.charAt(i));
+		}
+		int slot = Tokenizer.spread(h) & mask;
+		while (true) {
+			int t = table[slot] - 1;
+			if (t < 0) {
+				return -1;
+			}
+			if (hashes[t] == h && terms[t].length == length && regionEquals(terms[t], s, start)) {
+				return t;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private static boolean regionEquals(char[] term, CharSequence s, int start) {
+		for (int i = 0; i < term.length; i++) {
+			if (term[i] != fold(s.charAt(start + i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	* Case folds a char so two chars fold to the same value exactly when equalsIgnoreCase() treats them as equal
+	* (it compares the upper case of each, then the lower case of those).
+	*/
+	static char fold(char c) {
+		return c < 128 ? ASCII[c] : Character.toLowerCase(Character.toUpperCase(c));
+	}
+}
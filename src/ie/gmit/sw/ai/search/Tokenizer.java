@@ -0,0 +1,175 @@
+package ie.gmit.sw.ai.search;
+
+import java.util.Arrays;
+
+/**
+* Splits text into words for Scoring, the matchers and the ResultDatabase, without creating a String for each word.
+*
+* Previously the text of each page was copied several times before it was split. Scoring split each section with
+* split(" ") for every search term, and indexing did a replaceAll(), toLowerCase(), trim() and then a split().
+* Now the text is walked once and each word is passed to a handler as a position in the text (or in a reused buffer),
+* so the only thing created per word is what the handler decides to keep.
+*
+* There are two ways of splitting, which give exactly the same words as the code they replaced:
+*
+* - split() is the same as s.split(" "), used for scoring. Words are split on every space and are passed as they are,
+*   including empty words between spaces (split() drops the empty words at the end).
+* - words() is the same as s.replaceAll("[^A-Za-z ]", "").toLowerCase().trim().split(" ") without the empty words, used for indexing.
+*   Anything that isn't a letter is removed, and the word is lower cased into a buffer along with its hash.
+*
+* @see Scoring
+* @see TermMatcher
+* @see LevenshteinMatcher
+* @author Matthew Sloyan
+*/
+public final class Tokenizer {
+
+	// Buffer for words(), one per thread as pages are indexed by many threads at once.
+	private static final ThreadLocal<char[]> buffers = ThreadLocal.withInitial(() -> new char[64]);
+
+	private Tokenizer() {}
+
+	/**
+	* Receives each word from split(), as a position in the original text.
+	*/
+	public interface SpanHandler {
+		void word(CharSequence text, int start, int length);
+	}
+
+	/**
+	* Receives each word from words(). The buffer is reused for the next word, so copy anything that needs to be kept.
+	*/
+	public interface WordHandler {
+		void word(char[] buffer, int length, int hash);
+	}
+
+	/**
+	* Splits text on every space, giving the same words as s.split(" ").
+	*
+	* @param text text to split.
+	* @param handler called for each word.
+	*/
+	public static void split(CharSequence text, SpanHandler handler) {
+		int length = text.length();
+
+		// split(" ") returns the whole string when there are no spaces, so an empty string is one empty word.
+		if (length == 0) {
+			handler.word(text, 0, 0);
+			return;
+		}
+
+		int start = 0;
+		int empties = 0; // Empty words are only kept by split() if a non empty word comes after them.
+
+		for (int i = 0; i <= length; i++) {
+			if (i == length || text.charAt(i) == ' ') {
+				if (i == start) {
+					empties++;
+				}
+				else {
+					for (; empties > 0; empties--) {
+						handler.word(text, start, 0);
+					}
+					handler.word(text, start, i - start);
+				}
+				start = i + 1;
+			}
+		}
+	}
+
+	/**
+	* Splits text into lower case words of letters only, used for indexing.
+	* Chars that aren't A-Z or a-z are removed, so "don't" is "dont", and empty words are skipped.
+	*
+	* The hash is the same as String.hashCode() would give for the word.
+	*
+	* @param text text to split.
+	* @param handler called for each word.
+	*/
+	public static void words(CharSequence text, WordHandler handler) {
+		char[] buffer = buffers.get();
+		int length = 0;
+		int hash = 0;
+
+		for (int i = 0, n = text.length(); i <= n; i++) {
+			char c = i == n ? ' ' : text.charAt(i);
+
+			if (c == ' ') {
+				if (length > 0) {
+					handler.word(buffer, length, hash);
+					length = 0;
+					hash = 0;
+				}
+			}
+			else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+				if (length == buffer.length) {
+					buffer = Arrays.copyOf(buffer, length * 2);
+					buffers.set(buffer);
+				}
+				c |= 0x20; // Lower case
+				buffer[length++] = c;
+				hash = 31 * hash + c;
+			}
+		}
+	}
+
+	/**
+	* SpanHandler that keeps the position of every word, for when words need to be looked at out of order.
+	*/
+	public static class Spans implements SpanHandler {
+		private int[] starts = new int[64];
+		private int[] lengths = new int[64];
+		private int size;
+
+		public void word(CharSequence text, int start, int length) {
+			if (size == starts.length) {
+				starts = Arrays.copyOf(starts, size * 2);
+				lengths = Arrays.copyOf(lengths, size * 2);
+			}
+			starts[size] = start;
+			lengths[size] = length;
+			size++;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int start(int i) {
+			return starts[i];
+		}
+
+		public int length(int i) {
+			return lengths[i];
+		}
+
+		public int end(int i) {
+			return starts[i] + lengths[i];
+		}
+	}
+
+	/**
+	* Spreads the bits of a String style hash, which are poor in the low bits for short words.
+	* Used by the hash tables that store words before taking the low bits as a slot.
+	*/
+	public static int spread(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		return h ^ (h >>> 13);
+	}
+
+	/**
+	* Checks if a word in a buffer is equal to a string.
+	*/
+	public static boolean equals(char[] buffer, int length, String s) {
+		if (s.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (buffer[i] != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
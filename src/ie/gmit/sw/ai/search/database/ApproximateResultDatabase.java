@@ -0,0 +1,287 @@
+package ie.gmit.sw.ai.search.database;
+
+import java.util.List;
+
+import ie.gmit.sw.ai.cloud.WordFrequency;
+import ie.gmit.sw.ai.search.Tokenizer;
+
+/**
+* Approximate results database that uses a fixed amount of memory no matter how many pages are crawled.
+* This is selected with the counting option (2 = Approximate), and used through the ResultsDatabaseProxy like the ResultDatabase.
+*
+* The ResultDatabase keeps a count for every different word it sees, so raising the crawl limits would raise the memory
+* used by each request without bound. Only the most frequent words end up in the word cloud, so this keeps counts
+* for at most CAPACITY words using the Space-Saving algorithm (Metwally et al.):
+*
+* - If the word is already counted its count goes up by one.
+* - If there is room, the word is added with a count of 1.
+* - Otherwise the word with the lowest count is replaced by the new word, which takes over its count + 1.
+*
+* The count a new word takes over is kept as its error, so for every word counted, count - error <= real count <= count.
+* No count is ever more than getMaxError() too high (the lowest count, which is at most words indexed / CAPACITY),
+* and any word that occurs more than that many times is guaranteed to be counted.
+*
+* The words are kept in a min-heap by count so the lowest is found in O(1), with a hash table from word to slot.
+* As every add may move words in the heap, one lock is used for the whole database rather than the atomic counts the
+* ResultDatabase uses, the work done under it is O(log(CAPACITY)).
+*
+* The words are kept here rather than in the WordDictionary, as adding every rare word from a large crawl to the
+* shared dictionary would undo the fixed memory this is for.
+*
+* The number of different words (used for the max words goal) can't be counted exactly in fixed memory, so it's
+* estimated by linear counting: each word sets one bit of a DISTINCT_BITS bitmap picked by its hash,
+* and the number of words is estimated from the fraction of bits still clear.
+*
+* @see Databaseable
+* @see ResultDatabase
+* @see ResultsDatabaseProxy
+* @see TopWords
+* @author Matthew Sloyan
+*/
+public class ApproximateResultDatabase implements Databaseable {
+
+	// Number of words counted, comfortably more than the number in a word cloud.
+	public static final int CAPACITY = 4096;
+
+	private static final int DISTINCT_BITS = 1 << 17; // 16KB
+
+	// == Words, one slot each ==
+	private final char[][] words = new char[CAPACITY][];
+	private final int[] lengths = new int[CAPACITY];
+	private final int[] hashes = new int[CAPACITY];
+	private final int[] counts = new int[CAPACITY];
+	private final int[] errors = new int[CAPACITY];
+	private int size;
+
+	// Min-heap of slots by count, and the position of each slot in the heap.
+	private final int[] heap = new int[CAPACITY];
+	private final int[] heapPosition = new int[CAPACITY];
+
+	// Hash table of slot + 1 (0 is empty), at most half full.
+	private final int[] table = new int[CAPACITY * 2];
+	private final int mask = table.length - 1;
+
+	// == Different words estimate ==
+	private final long[] distinct = new long[DISTINCT_BITS / 64];
+	private volatile int clearBits = DISTINCT_BITS;
+
+	private long indexed; // Total words indexed.
+
+	public ApproximateResultDatabase() {
+		super();
+	}
+
+	/**
+	* Estimate of the number of different words indexed, this is used as one of the goal conditions in searches.
+	* Linear counting, n = -m * ln(clear bits / m), which is accurate to a few percent up to a few times DISTINCT_BITS words.
+	*/
+	public int checkSize() {
+		int clear = Math.max(1, clearBits);
+		return (int) Math.round(-DISTINCT_BITS * Math.log((double) clear / DISTINCT_BITS));
+	}
+
+	/**
+	* Indexes all strings found in a webpage, the same words are indexed as the ResultDatabase.
+	*
+	* @param searchTerms search terms, which are not indexed.
+	* @param text meta, title, headings and body strings to add.
+	*/
+	public void index(List<String> searchTerms, String ...text) {
+		ResultDatabase.forEachWord(searchTerms, text, this::add);
+	}
+
+	/**
+	* Counts one occurrence of a word, replacing the lowest counted word if it's new and there's no room.
+	*/
+	private synchronized void add(char[] word, int length, int hash) {
+		int h = Tokenizer.spread(hash);
+		indexed++;
+
+		// Different words estimate.
+		int bit = h & (DISTINCT_BITS - 1);
+		long before = distinct[bit >>> 6];
+		if ((before & (1L << bit)) == 0) {
+			distinct[bit >>> 6] = before | (1L << bit);
+			clearBits--;
+		}
+
+		int slot = find(word, length, h);
+		if (slot >= 0) {
+			counts[slot]++;
+			siftDown(heapPosition[slot]);
+			return;
+		}
+
+		if (size < CAPACITY) {
+			// Room for a new word.
+			slot = size++;
+			store(slot, word, length, h);
+			counts[slot] = 1;
+			errors[slot] = 0;
+			heap[slot] = slot;
+			heapPosition[slot] = slot;
+			siftUp(slot);
+		}
+		else {
+			// Replace the word with the lowest count, and take over its count.
+			slot = heap[0];
+			remove(slot);
+			store(slot, word, length, h);
+			errors[slot] = counts[slot];
+			counts[slot]++;
+			siftDown(0);
+		}
+		insert(slot);
+	}
+
+	/**
+	* Gets the top N words, highest count first. Counts may be up to getMaxError() too high.
+	*
+	* @param limit number of words in final word cloud.
+	* @return array of the top words.
+	* @see WordFrequency
+	*/
+	public synchronized WordFrequency[] getResults(int limit) {
+		TopWords top = new TopWords(limit, this::compareWords);
+		for (int slot = 0; slot < size; slot++) {
+			top.offer(slot, counts[slot]);
+		}
+
+		int results = top.sort();
+		WordFrequency[] wf = new WordFrequency[results];
+
+		System.out.println("TOP " + limit + " RESULTS (approximate, " + indexed + " words indexed, counts at most " + getMaxError() + " too high)\n");
+
+		for (int i = 0; i < results; i++) {
+			int slot = top.getWord(i);
+			wf[i] = new WordFrequency(new String(words[slot], 0, lengths[slot]), counts[slot]);
+			System.out.println(wf[i] + "\tError: " + errors[slot]);
+		}
+
+		return wf;
+	}
+
+	/**
+	* Most any count can be too high by, which is the lowest count once every slot is used and 0 before.
+	*/
+	public synchronized int getMaxError() {
+		return size < CAPACITY ? 0 : counts[heap[0]];
+	}
+
+	// == Hash table ==
+
+	private int find(char[] word, int length, int h) {
+		int i = h & mask;
+		int slot;
+		while ((slot = table[i] - 1) >= 0) {
+			if (hashes[slot] == h && lengths[slot] == length && equals(words[slot], word, length)) {
+				return slot;
+			}
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	private void insert(int slot) {
+		int i = hashes[slot] & mask;
+		while (table[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		table[i] = slot + 1;
+	}
+
+	/**
+	* Removes a slot from the table, moving back any words after it that would no longer be found (backward shift deletion).
+	*/
+	private void remove(int slot) {
+		int i = hashes[slot] & mask;
+		while (table[i] != slot + 1) {
+			i = (i + 1) & mask;
+		}
+
+		int j = i;
+		while (true) {
+			table[i] = 0;
+			int home;
+			do {
+				j = (j + 1) & mask;
+				if (table[j] == 0) {
+					return;
+				}
+				home = hashes[table[j] - 1] & mask;
+			// Leave it if its home is cyclically between the gap and where it is now.
+			} while (i <= j ? (i < home && home <= j) : (i < home || home <= j));
+
+			table[i] = table[j];
+			i = j;
+		}
+	}
+
+	private void store(int slot, char[] word, int length, int h) {
+		if (words[slot] == null || words[slot].length < length) {
+			words[slot] = new char[Math.max(length, 16)];
+		}
+		System.arraycopy(word, 0, words[slot], 0, length);
+		lengths[slot] = length;
+		hashes[slot] = h;
+	}
+
+	private static boolean equals(char[] a, char[] b, int length) {
+		for (int i = 0; i < length; i++) {
+			if (a[i] != b[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int compareWords(int slot1, int slot2) {
+		int length = Math.min(lengths[slot1], lengths[slot2]);
+		for (int i = 0; i < length; i++) {
+			int c = words[slot1][i] - words[slot2][i];
+			if (c != 0) {
+				return c;
+			}
+		}
+		return lengths[slot1] - lengths[slot2];
+	}
+
+	// == Min-heap by count ==
+
+	private void siftUp(int position) {
+		int slot = heap[position];
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			if (counts[heap[parent]] <= counts[slot]) {
+				break;
+			}
+			move(heap[parent], position);
+			position = parent;
+		}
+		move(slot, position);
+	}
+
+	private void siftDown(int position) {
+		int slot = heap[position];
+		while (true) {
+			int child = 2 * position + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+				child++;
+			}
+			if (counts[slot] <= counts[heap[child]]) {
+				break;
+			}
+			move(heap[child], position);
+			position = child;
+		}
+		move(slot, position);
+	}
+
+	private void move(int slot, int position) {
+		heap[position] = slot;
+		heapPosition[slot] = position;
+	}
+}
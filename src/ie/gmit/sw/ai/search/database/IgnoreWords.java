@@ -1,41 +1,204 @@
 package ie.gmit.sw.ai.search.database;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 
+import ie.gmit.sw.ai.search.Tokenizer;
 import ie.gmit.sw.ai.search.models.Files;
 
 /**
-* Loads all words from the ignorewords.txt file into a HashSet. This is used by the ResultsDatabase 
+* Loads all words from the ignorewords.txt file into a set. This is used by the ResultsDatabase
 * to compare word against set.
-* I have used a HashSet for the words for speed (search, insert and delete functions are O(1)).
-* 
-* @see ResultsDatabase
+*
+* Previously the file was read for every request (each new ResultDatabase), and the set was stored in a static field
+* that every request overwrote. Now it's loaded once at servlet init and shared by all requests.
+*
+* The words are stored in an immutable open addressing hash table of chars rather than a HashSet<String>,
+* so a word from the Tokenizer can be checked straight from its buffer using the hash the Tokenizer already worked out,
+* without creating a String for it.
+*
+* The file is checked for changes at most once every RELOAD_CHECK_INTERVAL ms, the same as the models. If it has changed
+* a new set is built and swapped in with a single volatile write, so a request never sees a half loaded set.
+*
+* I have implemented a Singleton design pattern for this as with Files, as the ignore words are the same for every user.
+*
+* @see ResultDatabase
+* @see Tokenizer
 * @author Matthew Sloyan
 */
 public class IgnoreWords {
-	
-	public Set<String> loadIgnoreWords() {
-		BufferedReader br;
-		Set<String> ignoreWords = new HashSet<String>();
-		
+
+	private static final long RELOAD_CHECK_INTERVAL = 1000;
+
+	// Index of the ignore words file in Files.
+	private static final int IGNORE_WORDS_INDEX = 0;
+
+	// Singleton design pattern.
+	private static IgnoreWords instance = new IgnoreWords();
+
+	private volatile WordSet words;
+	private volatile long nextCheck;
+	private long lastModified = -1;
+	private long length = -1;
+
+	// private constructor, so no other class can create an instance.
+	private IgnoreWords() {}
+
+	public static IgnoreWords getInstance() {
+		return instance;
+	}
+
+	/**
+	* Loads the ignore words file, so the first search doesn't pay for it.
+	* Called from ServiceHandler.init() once the file paths are set.
+	*/
+	public void init() {
+		reloadIfChanged(System.currentTimeMillis());
+	}
+
+	/**
+	* Checks if a word from the Tokenizer is an ignore word.
+	*
+	* @param word buffer holding the word.
+	* @param length length of the word.
+	* @param hash hash of the word, the same as String.hashCode().
+	* @return true if the word should be ignored.
+	*/
+	public boolean contains(char[] word, int length, int hash) {
+		return getWords().contains(word, length, hash);
+	}
+
+	private WordSet getWords() {
+		long now = System.currentTimeMillis();
+		if (words == null || now >= nextCheck) {
+			reloadIfChanged(now);
+		}
+
+		WordSet current = words;
+		return current == null ? WordSet.EMPTY : current;
+	}
+
+	/**
+	* Loads the file if it has never been loaded or has changed since.
+	* Synchronized so only one thread loads a new set, readers never wait on this.
+	*/
+	private synchronized void reloadIfChanged(long now) {
+		// Another thread may have checked while this one was waiting.
+		if (words != null && now < nextCheck) {
+			return;
+		}
+		nextCheck = now + RELOAD_CHECK_INTERVAL;
+
+		File file = new File(Files.getInstance().getFileNames().get(IGNORE_WORDS_INDEX));
+		if (words != null && file.lastModified() == lastModified && file.length() == length) {
+			return;
+		}
+
+		List<String> lines = new ArrayList<>();
+
 		try {
 			// Load in ignore words file (index 0).
-			br = new BufferedReader(new FileReader(Files.getInstance().getFileNames().get(0)));
-			
+			BufferedReader br = new BufferedReader(new FileReader(file));
+
 	        String line = "";
 	        while ((line = br.readLine()) != null) {
-	        	// Add each line to the hashset.
-	        	ignoreWords.add(line);
+	        	// Add each line to the set.
+	        	lines.add(line);
 	        }
 	        br.close();
 		} catch (IOException e) {
 			System.out.println("File not found.");
+
+			// Keep using the last good set.
+			if (words == null) {
+				words = WordSet.EMPTY;
+			}
+			return;
+		}
+
+		lastModified = file.lastModified();
+		length = file.length();
+		words = new WordSet(lines);
+		System.out.println("[INFO] Loaded " + words.size + " ignore words");
+	}
+
+	/**
+	* Immutable set of words. Every word is stored in one char array, and the table holds the index + 1 of each word
+	* (0 is empty), found by linear probing from the word's hash.
+	*/
+	private static final class WordSet {
+		private static final WordSet EMPTY = new WordSet(new ArrayList<>());
+
+		private final char[] chars;
+		private final int[] starts; // Start of each word in chars, starts[i + 1] is the end of word i.
+		private final int[] hashes;
+		private final int[] table;
+		private final int mask;
+		private final int size;
+
+		WordSet(List<String> words) {
+			int capacity = Integer.highestOneBit(Math.max(2, words.size() * 2) - 1) << 1;
+			table = new int[capacity];
+			mask = capacity - 1;
+
+			int total = 0;
+			for (String word : words) {
+				total += word.length();
+			}
+			chars = new char[total];
+			starts = new int[words.size() + 1];
+			hashes = new int[words.size()];
+
+			int count = 0;
+			for (String word : words) {
+				int hash = word.hashCode();
+				word.getChars(0, word.length(), chars, starts[count]);
+
+				// Duplicate lines are only added once.
+				if (find(chars, starts[count], word.length(), hash, count) < 0) {
+					hashes[count] = hash;
+					starts[count + 1] = starts[count] + word.length();
+
+					int slot = Tokenizer.spread(hash) & mask;
+					while (table[slot] != 0) {
+						slot = (slot + 1) & mask;
+					}
+					table[slot] = count + 1;
+					count++;
+				}
+			}
+			size = count;
+		}
+
+		boolean contains(char[] word, int length, int hash) {
+			return find(word, 0, length, hash, size) >= 0;
+		}
+
+		// Index of the word at word[offset, offset + length) in the first count words, or -1.
+		private int find(char[] word, int offset, int length, int hash, int count) {
+			int slot = Tokenizer.spread(hash) & mask;
+			int i;
+			while ((i = table[slot] - 1) >= 0) {
+				if (i < count && hashes[i] == hash && starts[i + 1] - starts[i] == length && regionEquals(word, offset, i, length)) {
+					return i;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		private boolean regionEquals(char[] word, int offset, int i, int length) {
+			int start = starts[i];
+			for (int j = 0; j < length; j++) {
+				if (chars[start + j] != word[offset + j]) {
+					return false;
+				}
+			}
+			return true;
 		}
-		
-		return ignoreWords;
 	}
 }
@@ -1,15 +1,9 @@
 package ie.gmit.sw.ai.search.database;
 
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Pattern;
 
 import ie.gmit.sw.ai.cloud.WordFrequency;
+import ie.gmit.sw.ai.search.Tokenizer;
 
 /**
 * This is the implementation of the real results database.
@@ -22,32 +16,34 @@ import ie.gmit.sw.ai.cloud.WordFrequency;
 * loose I used to a proxy design pattern, and only composed the proxy where it is needed. 
 * 
 * I wanted to uphold the SRP with this class, so all database functionality such as indexing words, checking against the ignore words file
-* and sorting the final map are handled here rather than other classes.
+* and getting the top words are handled here rather than other classes.
 * 
-* I have used a ConcurrentHashMap for the local db as it's the fastest type (search, insert and delete functions are O(1)).
-* Also it allows for concurrency between multiple threads as an Thread Pool is used to process links.
+* I have used a WordCounter for the local db, which counts each word by its id in the shared WordDictionary (search and insert are O(1)).
+* It allows for concurrency between multiple threads as an Thread Pool is used to process links, and unlike the
+* ConcurrentHashMap used before, no counts are lost when two threads index the same word at the same time.
 * 
 * @see Databaseable
 * @see ResultsDatabaseProxy
+* @see WordCounter
+* @see WordDictionary
+* @see Tokenizer
 * @author Matthew Sloyan
 */
 public class ResultDatabase implements Databaseable {
 
-	private Map<String, Integer> wordMap = new ConcurrentHashMap<>();
-	private static Set<String> ignoreWords;
+	private WordCounter wordMap = new WordCounter();
 	
 	/**
-	* Constructor method. When initialised load ignore words file into HashSet.
+	* Constructor method.
 	* 
 	* @see IgnoreWords
 	*/
 	public ResultDatabase() {
 		super();
-		ignoreWords = new IgnoreWords().loadIgnoreWords();
 	}
 
 	/**
-	* Check the current size of the hash map, this is used as one of the goal conditions in searches.
+	* Check the number of different words indexed, this is used as one of the goal conditions in searches.
 	*/
 	public int checkSize() {
 		return wordMap.size();
@@ -59,93 +55,89 @@ public class ResultDatabase implements Databaseable {
 	* Handles any number of params using variable arguments.
 	* 
 	* A number of checks are done on each word which is described below. A lot of testing went into this to ensure better results.
+	* Each string is split by the Tokenizer in one pass, rather than copied by replaceAll(), toLowerCase() and trim() before splitting.
 	* Running time: O(N^2) however first loop runs four times in current build.
 	* 
 	* @param term search term to compare against.
 	* @param text meta, title, headings and body strings to add to map.
 	*/
 	public void index(List<String> searchTerms, String ...text) {
-		//pattern used for additional speed on split
-		Pattern pattern = Pattern.compile(" ");
+		forEachWord(searchTerms, text, this::addToResults);
+	}
+	
+	/**
+	* Passes each word in the text that should be indexed to the handler, shared by the Databaseable implementations.
+	* 
+	* @param searchTerms search terms, which are not indexed.
+	* @param text meta, title, headings and body strings.
+	* @param handler called for each word to index.
+	*/
+	static void forEachWord(List<String> searchTerms, String[] text, Tokenizer.WordHandler handler) {
+		IgnoreWords ignoreWords = IgnoreWords.getInstance();
 		
 		// Loop through all inputs (headers, title, body, meta etc)
 		for (String s : text) {
-			String[] words = pattern.split(s.replaceAll("[^A-Za-z ]", "").toLowerCase().trim());
 			
-			// Loop through all split words from title, headings body.
-			for (String word : words) {
+			// Loop through all words from title, headings body. Words are lower case letters only.
+			Tokenizer.words(s, (word, length, hash) -> {
 				
-				// Checks for empty words, if the word is not equal to the search term,
-				// if word is in ignore words set, and if the word is longer than 2 characters. 
-				// If so ignore word.
-				if (!word.isEmpty() && !searchTerms.contains(word) && !ignoreWords.contains(word) && word.length() >= 2) {
-					addToResults(word);
+				// Checks if the word is longer than 2 characters, if the word is not equal to the search term,
+				// and if word is in ignore words set. If so ignore word.
+				if (length >= 2 && !isSearchTerm(searchTerms, word, length) && !ignoreWords.contains(word, length, hash)) {
+					handler.word(word, length, hash);
 				}
+			});
+		}
+	}
+	
+	// Same as searchTerms.contains(word), without creating a String.
+	private static boolean isSearchTerm(List<String> searchTerms, char[] word, int length) {
+		for (String term : searchTerms) {
+			if (Tokenizer.equals(word, length, term)) {
+				return true;
 			}
 		}
+		return false;
 	}
 
 	/**
-	* Method add each valid word from index to HashMap.
-	* Running time: O(1) as HashMap's search, insert and delete functions are O(1)
+	* Method add each valid word from index to the WordCounter.
+	* If the word has been added already its frequency is increased by one, else it's added with a frequency of 1.
+	* Running time: O(1) as the WordCounter's search and insert functions are O(1)
 	* 
-	* @param word to add to map.
+	* @param word buffer holding the word to add.
+	* @param length length of the word.
+	* @param hash hash of the word.
 	*/
-	private void addToResults(String word) {
-		// Check if the word is in the map already, if so increase frequency by one.
-		// Else create a new key/value and set frequency to 1.
-		if (wordMap.containsKey(word)) {
-			wordMap.put(word, wordMap.get(word) + 1);
-		} else {
-			wordMap.put(word, 1);
-		}
+	private void addToResults(char[] word, int length, int hash) {
+		wordMap.add(word, length, hash);
 	}
 	
 	/**
-	* Method which gets sorted map as a list and returns array of the top N words.
-	* Running time: O(N).
+	* Method which gets the top N words by frequency and returns them as an array, highest frequency first.
+	* Words with the same frequency are in alphabetical order. If fewer than N words have been indexed, all of them are returned.
+	* Running time: O(n log(N)), as only the top N words are kept in a heap rather than sorting every word.
 	* 
 	* @param limit number of words in final word cloud.
 	* @return array of the top words.
 	* @see WordFrequency
+	* @see TopWords
 	*/
 	public WordFrequency[] getResults(int limit) {
-		WordFrequency[] wf = new WordFrequency[limit];
+		TopWords top = new TopWords(limit, wordMap::compareWords);
+		wordMap.forEach(top::offer);
+		
+		int size = top.sort();
+		WordFrequency[] wf = new WordFrequency[size];
 		
 		System.out.println("TOP " + limit + " RESULTS\n");
 
-		// Get sorted map by value.
-		List<Map.Entry<String, Integer>> list = sortMapByValue();
-
-		// Add to array until limit is reached.
-		for (int i = 0; i < limit; i++) {
-			wf[i] = new WordFrequency(list.get(i).getKey(), list.get(i).getValue());
+		// Only the words in the results are turned into Strings.
+		for (int i = 0; i < size; i++) {
+			wf[i] = new WordFrequency(wordMap.getWord(top.getWord(i)), top.getCount(i));
 			System.out.println(wf[i]);
 		}
 
 		return wf;
 	}
-
-	/**
-	* Sort map by value in descending order, and return as a list to get number of words to display.
-	* The top N number of words are displayed in a word cloud to the user.
-	* A comparator is used to sort by value, which compares value 1 and 2.
-	* Code for comparator adapted from: https://www.geeksforgeeks.org/sorting-a-hashmap-according-to-values/
-	* Running time: O(n log(n)) because of sort.
-	* 
-	* @return list of map entries sorted by value in descending order.
-	*/
-	private List<Map.Entry<String, Integer>> sortMapByValue() {
-		// Create a list from elements of HashMap
-		List<Map.Entry<String, Integer>> list = new LinkedList<Map.Entry<String, Integer>>(wordMap.entrySet());
-
-		// Sort the list in decending order.
-		Collections.sort(list, new Comparator<Map.Entry<String, Integer>>() {
-			public int compare(Map.Entry<String, Integer> word1, Map.Entry<String, Integer> word2) {
-				return word2.getValue().compareTo(word1.getValue());
-			}
-		});
-		
-		return list;
-	}
 }
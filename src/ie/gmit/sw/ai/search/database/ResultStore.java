@@ -0,0 +1,352 @@
+package ie.gmit.sw.ai.search.database;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import ie.gmit.sw.ai.cloud.WordFrequency;
+import ie.gmit.sw.ai.search.NodeParser;
+import ie.gmit.sw.ai.search.models.Files;
+import ie.gmit.sw.ai.search.models.Options;
+
+/**
+* Store on disk of the results of each search, so a query that's repeated (like a trending name) doesn't crawl the web again.
+*
+* Results are kept per normalized query (lower case, single spaces) and the options that change the words found:
+* search, heuristic, scoring, goal and counting. The word cloud number isn't part of the key, as the results are the top N
+* words in a fixed order, so a request for fewer words can use the first ones stored by a request for more.
+*
+* Each result is a small binary file in the directory set in web.xml (RESULT_STORE_LOCATION):
+*
+* - int MAGIC, long time stored, the key (short length + UTF-8), int number of words, byte 1 if that's every word found.
+* - for each word, short length + UTF-8, then int frequency.
+*
+* Files are small, so each is read whole into a buffer in one call, and a stored result is returned in about a millisecond
+* rather than the seconds a crawl takes. They aren't memory mapped, as a mapping keeps the file open until it's garbage
+* collected, and on Windows an open file can't be replaced or deleted. Files are written to a temp file first and then
+* moved into place, so a reader never sees half a file and two requests storing the same query don't get in each other's way.
+*
+* Results older than TIME_TO_LIVE are not used and are deleted, and once the files take up more than MAX_BYTES the
+* oldest are deleted first. A file that can't be deleted still counts towards MAX_BYTES and is tried again on the next
+* eviction. The index of files is kept in memory and built from the directory at init, so results last across restarts.
+*
+* I have implemented a Singleton design pattern for this as with IgnoreWords, as results are shared by every user.
+*
+* @see NodeParser
+* @see Databaseable
+* @author Matthew Sloyan
+*/
+public class ResultStore {
+
+	// How long stored results are used for, 1 hour.
+	public static final long TIME_TO_LIVE = 60 * 60 * 1000;
+
+	// Most space the stored results can take up, 16MB.
+	public static final long MAX_BYTES = 16 * 1024 * 1024;
+
+	private static final int MAGIC = 0x57435253; // "WCRS"
+	private static final String SUFFIX = ".wcr";
+
+	// Index of the result store directory in Files.
+	private static final int RESULT_STORE_INDEX = 4;
+
+	// Singleton design pattern.
+	private static ResultStore instance = new ResultStore();
+
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+	private final List<Entry> undeleted = new ArrayList<>();
+	private volatile File directory;
+	private long bytes;
+
+	// private constructor, so no other class can create an instance.
+	private ResultStore() {}
+
+	public static ResultStore getInstance() {
+		return instance;
+	}
+
+	/**
+	* Opens the store directory and indexes the results already in it.
+	* Called from ServiceHandler.init() once the file paths are set, if there's no directory set the store isn't used.
+	*/
+	public synchronized void init() {
+		List<String> fileNames = Files.getInstance().getFileNames();
+		if (fileNames.size() <= RESULT_STORE_INDEX) {
+			return;
+		}
+
+		File dir = new File(fileNames.get(RESULT_STORE_INDEX));
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			System.out.println("[INFO] Result store " + dir + " couldn't be created, results won't be stored");
+			return;
+		}
+
+		entries.clear();
+		undeleted.clear();
+		bytes = 0;
+
+		File[] files = dir.listFiles();
+		long now = System.currentTimeMillis();
+		for (File file : files == null ? new File[0] : files) {
+			if (!file.getName().endsWith(SUFFIX)) {
+				// Temp file left by a store that didn't finish.
+				if (file.getName().endsWith(".tmp")) {
+					file.delete();
+				}
+				continue;
+			}
+			try {
+				Result result = read(file);
+				if (now - result.stored < TIME_TO_LIVE) {
+					entries.put(result.key, new Entry(result.key, file, result.stored, file.length()));
+					bytes += file.length();
+					continue;
+				}
+			} catch (IOException | RuntimeException e) {
+				// Not a result file or only partly written, remove it below.
+			}
+			file.delete();
+		}
+		directory = dir;
+		evict(now);
+
+		System.out.println("[INFO] Result store has " + entries.size() + " results (" + bytes + " bytes)");
+	}
+
+	/**
+	* Gets the stored results for a query if there are any still fresh enough.
+	*
+	* @param query search query as typed by the user.
+	* @param options user options.
+	* @return the top words, at most the word cloud number, or null if the query has to be searched.
+	*/
+	public WordFrequency[] get(String query, Options options) {
+		if (directory == null) {
+			return null;
+		}
+
+		String key = getKey(query, options);
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (System.currentTimeMillis() - entry.stored >= TIME_TO_LIVE) {
+			remove(entry);
+			return null;
+		}
+
+		Result result;
+		try {
+			result = read(entry.file);
+		} catch (IOException | RuntimeException e) {
+			remove(entry);
+			return null;
+		}
+
+		int limit = options.getWordCloudNum();
+		if (!result.key.equals(key) || (result.words.length < limit && !result.complete)) {
+			// Stored for fewer words than are wanted now.
+			return null;
+		}
+
+		int n = Math.min(limit, result.words.length);
+		WordFrequency[] wf = new WordFrequency[n];
+		System.arraycopy(result.words, 0, wf, 0, n);
+
+		System.out.println("[INFO] Results for \"" + query + "\" loaded from store (stored " + (System.currentTimeMillis() - result.stored) / 1000 + "s ago)");
+		return wf;
+	}
+
+	/**
+	* Stores the results of a search. Empty results aren't stored, as the search most likely failed.
+	*
+	* @param query search query as typed by the user.
+	* @param options user options.
+	* @param results results from the database, in order.
+	*/
+	public void put(String query, Options options, WordFrequency[] results) {
+		File dir = directory;
+		if (dir == null || results == null || results.length == 0) {
+			return;
+		}
+
+		String key = getKey(query, options);
+		long now = System.currentTimeMillis();
+		File file = new File(dir, String.format("%016x", hash(key)) + SUFFIX);
+
+		File temp = null;
+		try {
+			temp = File.createTempFile("result", ".tmp", dir);
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeLong(now);
+				writeString(out, key);
+				out.writeInt(results.length);
+				// Fewer words than asked for means every word found is here.
+				out.writeByte(results.length < options.getWordCloudNum() ? 1 : 0);
+				for (WordFrequency word : results) {
+					writeString(out, word.getWord());
+					out.writeInt(word.getFrequency());
+				}
+			}
+			java.nio.file.Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.out.println("[INFO] Couldn't store results for \"" + query + "\"");
+			if (temp != null) {
+				temp.delete();
+			}
+			return;
+		}
+
+		synchronized (this) {
+			Entry old = entries.put(key, new Entry(key, file, now, file.length()));
+			if (old != null) {
+				bytes -= old.bytes;
+			}
+			bytes += file.length();
+			evict(now);
+		}
+	}
+
+	/**
+	* Deletes results that are too old, then the oldest results until the store is under MAX_BYTES.
+	*/
+	private synchronized void evict(long now) {
+		// Files that couldn't be deleted last time.
+		for (Entry entry : new ArrayList<>(undeleted)) {
+			undeleted.remove(entry);
+			delete(entry);
+		}
+
+		List<Entry> oldest = new ArrayList<>(entries.values());
+		oldest.sort(Comparator.comparingLong(e -> e.stored));
+
+		for (Entry entry : oldest) {
+			if (now - entry.stored < TIME_TO_LIVE && bytes <= MAX_BYTES) {
+				break;
+			}
+			remove(entry);
+		}
+	}
+
+	private synchronized void remove(Entry entry) {
+		// Only if it hasn't been replaced since.
+		if (entries.remove(entry.key, entry)) {
+			delete(entry);
+		}
+	}
+
+	// Its bytes are only taken off once the file is gone. Called holding the lock.
+	private void delete(Entry entry) {
+		if (entry.file.delete() || !entry.file.exists()) {
+			bytes -= entry.bytes;
+		}
+		else {
+			System.out.println("[INFO] Result store couldn't delete " + entry.file + ", will try again");
+			undeleted.add(entry);
+		}
+	}
+
+	/**
+	* Reads a whole result file into a buffer.
+	*/
+	private static Result read(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > MAX_BYTES) {
+				throw new IOException("Result file too large: " + file);
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					throw new IOException("Result file shorter than expected: " + file);
+				}
+			}
+			buffer.flip();
+
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("Not a result file: " + file);
+			}
+			long stored = buffer.getLong();
+			String key = readString(buffer);
+			WordFrequency[] words = new WordFrequency[buffer.getInt()];
+			boolean complete = buffer.get() == 1;
+			for (int i = 0; i < words.length; i++) {
+				words[i] = new WordFrequency(readString(buffer), buffer.getInt());
+			}
+			return new Result(key, stored, words, complete);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		out.writeShort(b.length);
+		out.write(b);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		byte[] b = new byte[buffer.getShort() & 0xFFFF];
+		buffer.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/**
+	* Key for a query and the options that change its results.
+	*/
+	static String getKey(String query, Options options) {
+		String normalized = query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+		return normalized + "|" + options.getSearch() + "|" + options.getHeuristic() + "|" + options.getScoring()
+			+ "|" + options.getGoal() + "|" + options.getCounting();
+	}
+
+	// 64 bit FNV-1a, used for file names. The key is kept in the file so a clash is never mistaken for a hit.
+	private static long hash(String key) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	private static final class Entry {
+		private final String key;
+		private final File file;
+		private final long stored;
+		private final long bytes;
+
+		Entry(String key, File file, long stored, long bytes) {
+			this.key = key;
+			this.file = file;
+			this.stored = stored;
+			this.bytes = bytes;
+		}
+	}
+
+	private static final class Result {
+		private final String key;
+		private final long stored;
+		private final WordFrequency[] words;
+		private final boolean complete;
+
+		Result(String key, long stored, WordFrequency[] words, boolean complete) {
+			this.key = key;
+			this.stored = stored;
+			this.words = words;
+			this.complete = complete;
+		}
+	}
+}
@@ -3,6 +3,7 @@ package ie.gmit.sw.ai.search.database;
 import java.util.List;
 
 import ie.gmit.sw.ai.cloud.WordFrequency;
+import ie.gmit.sw.ai.search.models.Options;
 
 /**
 * I have decided to implement a proxy to access the results database.
@@ -24,12 +25,31 @@ import ie.gmit.sw.ai.cloud.WordFrequency;
 */
 public class ResultsDatabaseProxy implements Databaseable {
 	
-	private ResultDatabase db;
+	private Databaseable db;
 	
 	public ResultsDatabaseProxy() {
 		super();
 		this.db = new ResultDatabase();
 	}
+	
+	/**
+	* Creates the database selected by the user options.
+	* 1 = Exact (ResultDatabase), 2 = Approximate with fixed memory (ApproximateResultDatabase).
+	* 
+	* @see ApproximateResultDatabase
+	*/
+	public ResultsDatabaseProxy(Options options) {
+		super();
+		
+		switch (options.getCounting()) {
+			case 2:
+				this.db = new ApproximateResultDatabase();
+				break;
+			default:
+				this.db = new ResultDatabase();
+				break;
+		}
+	}
 
 	@Override
 	public void index(List<String> searchTerms, String... text) {
@@ -0,0 +1,128 @@
+package ie.gmit.sw.ai.search.database;
+
+/**
+* Keeps the top N words by frequency as words are offered to it, used to get the words for the word cloud.
+*
+* Previously every word in the db was copied into a LinkedList and the whole list was sorted, just to take the first
+* 30 or so. Instead the best N words so far are kept in a min-heap with the worst of them at the root, so each word
+* offered is either thrown away after one comparison with the root, or replaces it. This is O(n log(N)) time with
+* only O(N) extra memory, rather than O(n log(n)) and a copy of the whole db.
+*
+* The heap is two primitive arrays (word and count), where a word is the id given by the db.
+* Words with the same frequency are ordered alphabetically, so the same words always give the same results.
+*
+* @see ResultDatabase
+* @author Matthew Sloyan
+*/
+class TopWords {
+
+	/**
+	* Alphabetical order of two words, used to break ties.
+	*/
+	interface WordOrder {
+		int compareWords(int word1, int word2);
+	}
+
+	private final int[] words;
+	private final int[] counts;
+	private final WordOrder order;
+	private int size;
+
+	/**
+	* @param limit number of words to keep.
+	* @param order order of words with the same frequency.
+	*/
+	TopWords(int limit, WordOrder order) {
+		this.words = new int[Math.max(0, limit)];
+		this.counts = new int[Math.max(0, limit)];
+		this.order = order;
+	}
+
+	/**
+	* Adds a word if it's in the top N so far.
+	*/
+	void offer(int word, int count) {
+		if (size < words.length) {
+			// Not full yet, add to the end and move up.
+			int i = size++;
+			words[i] = word;
+			counts[i] = count;
+			siftUp(i);
+		}
+		else if (size > 0 && isBetter(word, count, words[0], counts[0])) {
+			// Replace the worst word.
+			words[0] = word;
+			counts[0] = count;
+			siftDown(0, size);
+		}
+	}
+
+	/**
+	* Sorts the words kept from highest to lowest frequency. Offering more words after this isn't supported.
+	*
+	* @return number of words, the lower of N and the number of words offered.
+	*/
+	int sort() {
+		// Heap sort, each worst word is moved to the end so the best ends up first.
+		for (int end = size - 1; end > 0; end--) {
+			swap(0, end);
+			siftDown(0, end);
+		}
+		return size;
+	}
+
+	int getWord(int i) {
+		return words[i];
+	}
+
+	int getCount(int i) {
+		return counts[i];
+	}
+
+	// True if word 1 should come before word 2 in the results.
+	private boolean isBetter(int word1, int count1, int word2, int count2) {
+		if (count1 != count2) {
+			return count1 > count2;
+		}
+		return order.compareWords(word1, word2) < 0;
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!isBetter(words[parent], counts[parent], words[i], counts[i])) {
+				break;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i, int end) {
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= end) {
+				break;
+			}
+			// Pick the worse child.
+			if (child + 1 < end && isBetter(words[child], counts[child], words[child + 1], counts[child + 1])) {
+				child++;
+			}
+			if (!isBetter(words[i], counts[i], words[child], counts[child])) {
+				break;
+			}
+			swap(i, child);
+			i = child;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int word = words[i];
+		words[i] = words[j];
+		words[j] = word;
+
+		int count = counts[i];
+		counts[i] = counts[j];
+		counts[j] = count;
+	}
+}
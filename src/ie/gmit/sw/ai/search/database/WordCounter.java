@@ -0,0 +1,184 @@
+package ie.gmit.sw.ai.search.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import ie.gmit.sw.ai.search.Tokenizer;
+
+/**
+* Counts how many times each word is indexed, for the ResultDatabase.
+*
+* The ConcurrentHashMap<String, Integer> used before was updated with containsKey() and then put(get() + 1), so two threads
+* indexing the same word at the same time could lose a count, and every count boxed a new Integer.
+* Instead each word is turned into its id in the shared WordDictionary, and counted in an array indexed by id.
+* The counts are AtomicIntegerArrays, so adding is a single atomic increment with no locks, counts are always exact,
+* and threads only slow each other down when they add the same word at the same moment.
+*
+* The words themselves are only stored once in the WordDictionary, so a word costs one int here, rather than a map node,
+* a String and an Integer. Words are added straight from the Tokenizer's buffer, so a String is only made
+* for the words that end up in the results.
+*
+* The counts are split into pages of PAGE_SIZE, created as ids are used, so growing never copies the counts.
+*
+* Once the generation is full new words can't be added to it, so they're kept here for this request only, with ids from
+* WordDictionary.MAX_WORDS up. They're freed with the request.
+*
+* @see ResultDatabase
+* @see WordDictionary
+* @see Tokenizer
+* @author Matthew Sloyan
+*/
+public class WordCounter {
+
+	private static final int PAGE_BITS = 12;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	// All words are from the generation the request started with, so their ids don't change.
+	private final WordDictionary.Generation dictionary;
+
+	private volatile AtomicIntegerArray[] pages = new AtomicIntegerArray[16];
+	private final AtomicInteger size = new AtomicInteger();
+
+	// Words added after the generation was full, id - MAX_WORDS is the index in overflow.
+	private final Map<String, Integer> overflowIds = new ConcurrentHashMap<>();
+	private final List<char[]> overflow = new ArrayList<>();
+
+	public WordCounter() {
+		this(WordDictionary.getInstance().getGeneration());
+	}
+
+	public WordCounter(WordDictionary.Generation dictionary) {
+		this.dictionary = dictionary;
+	}
+
+	/**
+	* Adds one to the count of a word.
+	*
+	* @param word buffer holding the word.
+	* @param length length of the word.
+	* @param hash hash of the word, the same as String.hashCode().
+	*/
+	public void add(char[] word, int length, int hash) {
+		int id = dictionary.getId(word, length, hash);
+		if (id < 0) {
+			id = getOverflowId(word, length);
+		}
+
+		if (getPage(id >>> PAGE_BITS).getAndIncrement(id & PAGE_MASK) == 0) {
+			// First time this request has seen the word.
+			size.incrementAndGet();
+			if (id < WordDictionary.MAX_WORDS) {
+				dictionary.used(id);
+			}
+		}
+	}
+
+	private int getOverflowId(char[] word, int length) {
+		String key = new String(word, 0, length);
+		Integer id = overflowIds.get(key);
+		if (id != null) {
+			return id;
+		}
+		return addOverflow(key);
+	}
+
+	private synchronized int addOverflow(String key) {
+		return overflowIds.computeIfAbsent(key, k -> {
+			overflow.add(k.toCharArray());
+			return WordDictionary.MAX_WORDS + overflow.size() - 1;
+		});
+	}
+
+	/**
+	* Number of different words counted.
+	*/
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	* Receives the id of every word and its count from forEach(). The id can be turned into the word with getWord().
+	*/
+	public interface Visitor {
+		void visit(int word, int count);
+	}
+
+	/**
+	* Passes every word and its count to the visitor.
+	*/
+	public void forEach(Visitor visitor) {
+		AtomicIntegerArray[] pages = this.pages;
+		for (int p = 0; p < pages.length; p++) {
+			AtomicIntegerArray page = pages[p];
+			if (page == null) {
+				continue;
+			}
+			for (int i = 0; i < PAGE_SIZE; i++) {
+				int count = page.get(i);
+				if (count > 0) {
+					visitor.visit(p << PAGE_BITS | i, count);
+				}
+			}
+		}
+	}
+
+	/**
+	* Gets a word from its id.
+	*/
+	public String getWord(int word) {
+		return new String(getChars(word));
+	}
+
+	/**
+	* Compares two words alphabetically by their ids, without creating Strings for them.
+	*/
+	public int compareWords(int word1, int word2) {
+		if (word1 < WordDictionary.MAX_WORDS && word2 < WordDictionary.MAX_WORDS) {
+			return dictionary.compareWords(word1, word2);
+		}
+
+		char[] chars1 = getChars(word1);
+		char[] chars2 = getChars(word2);
+		for (int i = 0; i < Math.min(chars1.length, chars2.length); i++) {
+			if (chars1[i] != chars2[i]) {
+				return chars1[i] - chars2[i];
+			}
+		}
+		return chars1.length - chars2.length;
+	}
+
+	private char[] getChars(int word) {
+		if (word < WordDictionary.MAX_WORDS) {
+			return dictionary.getChars(word);
+		}
+		synchronized (this) {
+			return overflow.get(word - WordDictionary.MAX_WORDS);
+		}
+	}
+
+	private AtomicIntegerArray getPage(int p) {
+		AtomicIntegerArray[] pages = this.pages;
+		if (p < pages.length && pages[p] != null) {
+			return pages[p];
+		}
+		return addPage(p);
+	}
+
+	private synchronized AtomicIntegerArray addPage(int p) {
+		AtomicIntegerArray[] pages = this.pages;
+		if (p >= pages.length) {
+			pages = Arrays.copyOf(pages, Math.max(pages.length * 2, p + 1));
+		}
+		if (pages[p] == null) {
+			pages[p] = new AtomicIntegerArray(PAGE_SIZE);
+		}
+		this.pages = pages;
+		return pages[p];
+	}
+}
@@ -0,0 +1,267 @@
+package ie.gmit.sw.ai.search.database;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import ie.gmit.sw.ai.search.Tokenizer;
+
+/**
+* Dictionary shared by every request that gives each indexed word a small int id, so the databases can count words
+* in arrays indexed by id rather than each keeping its own copy of every word as a String key.
+* Common words are hashed and stored once for the whole application, and only turned back into Strings for the results.
+*
+* The words are held in a Generation, which is only ever added to. Looking up a word that's already in it is lock free:
+* the hash table is an AtomicIntegerArray of ids, and a word's chars are always written before its id is put in the table.
+* Adding a new word takes a lock, which is rare once the common words are in.
+*
+* To keep the dictionary bounded, once a generation reaches MAX_WORDS a new generation is started with only the words
+* that were counted by at least KEEP_USES requests, so rare words expire. At most MAX_KEPT of them are kept, the most
+* used first, so the new generation always has room for new words. Each request keeps the generation it started with
+* (see getGeneration()), so the ids it has already counted stay valid until it finishes, and the old generation is freed
+* once the last request using it is done. A full generation is never added to again, so requests still using it get -1
+* for new words and keep them in their own WordCounter, rather than growing the old generation without limit.
+*
+* I have implemented a Singleton design pattern for this as with IgnoreWords, as the words are shared by every user.
+*
+* @see WordCounter
+* @see ResultDatabase
+* @author Matthew Sloyan
+*/
+public class WordDictionary {
+
+	// Words in a generation before a new one is started (about 50 bytes each).
+	public static final int MAX_WORDS = 1 << 18;
+
+	// Number of requests that must have counted a word for it to be kept in the next generation.
+	private static final int KEEP_USES = 2;
+
+	// Most words kept in the next generation, half of it is left for new words.
+	private static final int MAX_KEPT = MAX_WORDS / 2;
+
+	// Singleton design pattern.
+	private static WordDictionary instance = new WordDictionary();
+
+	private volatile Generation current = new Generation(1);
+
+	// private constructor, so no other class can create an instance.
+	private WordDictionary() {}
+
+	public static WordDictionary getInstance() {
+		return instance;
+	}
+
+	/**
+	* Gets the current generation, which a request should use for all its words.
+	*/
+	public Generation getGeneration() {
+		return current;
+	}
+
+	/**
+	* Starts a new generation if the current one is full. Only the thread that filled it does this.
+	*/
+	private synchronized void roll(Generation full) {
+		if (current != full) {
+			return;
+		}
+
+		// Uses in the high bits and id in the low, so sorting puts the most used words last.
+		long[] kept = new long[full.size];
+		int count = 0;
+		for (int id = 0; id < full.size; id++) {
+			int uses = full.getUses(id);
+			if (uses >= KEEP_USES) {
+				kept[count++] = (long) uses << 32 | id;
+			}
+		}
+		Arrays.sort(kept, 0, count);
+
+		Generation next = new Generation(full.number + 1);
+		for (int i = count - 1; i >= Math.max(0, count - MAX_KEPT); i--) {
+			int id = (int) kept[i];
+			next.add(full.getChars(id), full.getHash(id));
+		}
+		current = next;
+
+		System.out.println("[INFO] Word dictionary generation " + next.number + " kept " + next.size + " of " + full.size + " words");
+	}
+
+	/**
+	* One generation of the dictionary. Ids are dense, from 0 to size() - 1, and never change.
+	* Every array is split into pages of PAGE_SIZE so growing only copies the small array of pages.
+	*/
+	public final class Generation {
+		private static final int PAGE_BITS = 12;
+		private static final int PAGE_SIZE = 1 << PAGE_BITS;
+		private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+		private final long number;
+
+		private volatile char[][][] words = new char[16][][];
+		private volatile int[][] hashes = new int[16][];
+		private volatile AtomicIntegerArray[] uses = new AtomicIntegerArray[16];
+		private volatile int size;
+
+		// Hash table of id + 1 (0 is empty), at most half full.
+		private volatile AtomicIntegerArray table = new AtomicIntegerArray(1024);
+
+		private Generation(long number) {
+			this.number = number;
+		}
+
+		/**
+		* Gets the id of a word, adding it if it's new.
+		*
+		* @param word buffer holding the word.
+		* @param length length of the word.
+		* @param hash hash of the word, the same as String.hashCode().
+		* @return id of the word, or -1 if it's new and this generation is full.
+		*/
+		public int getId(char[] word, int length, int hash) {
+			int h = Tokenizer.spread(hash);
+			int id = find(table, word, length, h);
+			if (id >= 0) {
+				return id;
+			}
+			return add(word, length, h);
+		}
+
+		private int find(AtomicIntegerArray table, char[] word, int length, int h) {
+			int mask = table.length() - 1;
+			int i = h & mask;
+			int id;
+			while ((id = table.get(i) - 1) >= 0) {
+				if (getHash(id) == h && equals(getChars(id), word, length)) {
+					return id;
+				}
+				i = (i + 1) & mask;
+			}
+			return -1;
+		}
+
+		private synchronized int add(char[] word, int length, int h) {
+			// Another thread may have added it while this one was waiting.
+			int id = find(table, word, length, h);
+			if (id >= 0) {
+				return id;
+			}
+
+			// Full, and a new generation has been started.
+			if (size == MAX_WORDS) {
+				return -1;
+			}
+
+			id = size;
+			int page = id >>> PAGE_BITS;
+			if (page == words.length) {
+				words = Arrays.copyOf(words, page * 2);
+				hashes = Arrays.copyOf(hashes, page * 2);
+				uses = Arrays.copyOf(uses, page * 2);
+			}
+			if (words[page] == null) {
+				words[page] = new char[PAGE_SIZE][];
+				hashes[page] = new int[PAGE_SIZE];
+				uses[page] = new AtomicIntegerArray(PAGE_SIZE);
+			}
+			words[page][id & PAGE_MASK] = Arrays.copyOf(word, length);
+			hashes[page][id & PAGE_MASK] = h;
+
+			// Grow the table before it's more than half full.
+			AtomicIntegerArray table = this.table;
+			if ((id + 1) * 2 > table.length()) {
+				table = rehash(table.length() * 2);
+			}
+			insert(table, id, h);
+			this.table = table;
+			size = id + 1;
+
+			if (size == MAX_WORDS) {
+				roll(this);
+			}
+			return id;
+		}
+
+		private AtomicIntegerArray rehash(int capacity) {
+			AtomicIntegerArray table = new AtomicIntegerArray(capacity);
+			for (int id = 0; id < size; id++) {
+				insert(table, id, getHash(id));
+			}
+			return table;
+		}
+
+		// The chars and hash of the id must be set first, so a thread that finds the id can read them.
+		private void insert(AtomicIntegerArray table, int id, int h) {
+			int mask = table.length() - 1;
+			int i = h & mask;
+			while (table.get(i) != 0) {
+				i = (i + 1) & mask;
+			}
+			table.set(i, id + 1);
+		}
+
+		// Used when starting a new generation.
+		private void add(char[] word, int h) {
+			add(word, word.length, h);
+		}
+
+		/**
+		* Records that a request has counted a word, used to decide which words are kept in the next generation.
+		*/
+		public void used(int id) {
+			uses[id >>> PAGE_BITS].incrementAndGet(id & PAGE_MASK);
+		}
+
+		private int getUses(int id) {
+			return uses[id >>> PAGE_BITS].get(id & PAGE_MASK);
+		}
+
+		/**
+		* Gets the chars of a word, which must not be changed.
+		*/
+		public char[] getChars(int id) {
+			return words[id >>> PAGE_BITS][id & PAGE_MASK];
+		}
+
+		private int getHash(int id) {
+			return hashes[id >>> PAGE_BITS][id & PAGE_MASK];
+		}
+
+		public String getWord(int id) {
+			return new String(getChars(id));
+		}
+
+		/**
+		* Compares two words alphabetically by their ids.
+		*/
+		public int compareWords(int id1, int id2) {
+			char[] word1 = getChars(id1);
+			char[] word2 = getChars(id2);
+			for (int i = 0; i < Math.min(word1.length, word2.length); i++) {
+				if (word1[i] != word2[i]) {
+					return word1[i] - word2[i];
+				}
+			}
+			return word1.length - word2.length;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public long getNumber() {
+			return number;
+		}
+
+		private boolean equals(char[] a, char[] b, int length) {
+			if (a.length != length) {
+				return false;
+			}
+			for (int i = 0; i < length; i++) {
+				if (a[i] != b[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
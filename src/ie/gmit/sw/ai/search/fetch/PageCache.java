@@ -0,0 +1,866 @@
+package ie.gmit.sw.ai.search.fetch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import ie.gmit.sw.ai.search.models.Files;
+
+/**
+* Cache on disk of the pages downloaded by the PageFetcher, so popular queries don't fetch the same pages (Wikipedia,
+* news sites) from the web every time.
+*
+* Pages are kept per normalized URL (lower case scheme and host, no default port or fragment). A page is used without
+* asking the site for TIME_TO_LIVE, or the max-age the site sent. After that the PageFetcher asks the site if it has
+* changed (If-None-Match / If-Modified-Since), and if it hasn't (304) the cached body is used and only the time is updated.
+*
+* Everything is kept in the directory set in web.xml (PAGE_CACHE_LOCATION):
+*
+* - Segment files, which are only ever appended to. A body record is the SHA-256 of the body, its length and the body
+*   compressed with Deflater. A head record is the URL, the final URL after redirects, Content-Type, ETag and
+*   Last-Modified, and where its body is. Bodies are content addressed: a page that has the same body as one already
+*   stored (the same page under another URL, or refetched without change) points to the stored body rather than
+*   writing it again.
+* - An index file, memory mapped so a lookup doesn't read the disk or rebuild anything at startup. It's an open
+*   addressing hash table of URL hash to head and body location, when the page was last checked and for how long it's fresh.
+*
+* Once the segments take up more than MAX_BYTES, or the oldest is older than MAX_AGE, the oldest segment is deleted
+* along with every page in it. If the index is lost it's rebuilt from the segments.
+*
+* If PAGE_CACHE_OFFLINE is true in web.xml pages are only taken from the cache, however old, and nothing is downloaded,
+* so a crawl can be run again without the network.
+*
+* I have implemented a Singleton design pattern for this as with the ResultStore, as pages are shared by every user.
+*
+* @see PageFetcher
+* @author Matthew Sloyan
+*/
+public class PageCache {
+
+	// How long a page is used without asking the site if it has changed, unless the site says, 1 hour.
+	public static final long TIME_TO_LIVE = 60 * 60 * 1000;
+
+	// Oldest a segment can be before it's deleted, 1 week.
+	public static final long MAX_AGE = 7 * 24 * 60 * 60 * 1000L;
+
+	// Most space the segments can take up, 256MB.
+	public static final long MAX_BYTES = 256L * 1024 * 1024;
+
+	// Size a segment is filled to before the next one is started, 16MB.
+	public static final int SEGMENT_BYTES = 16 * 1024 * 1024;
+
+	// Slots in the index, at most 3/4 are used so lookups stay short.
+	private static final int SLOTS = 1 << 16;
+	private static final int MAX_ENTRIES = SLOTS / 4 * 3;
+
+	private static final int INDEX_MAGIC = 0x57435049; // "WCPI"
+	private static final int HEAD_MAGIC = 0x57435048; // "WCPH"
+	private static final int BODY_MAGIC = 0x57435042; // "WCPB"
+
+	// Index: int magic, int slots, then for each slot long URL hash, int head segment, int head offset,
+	// int body segment, int body offset, long time checked, long max age.
+	private static final int INDEX_HEADER = 8;
+	private static final int SLOT_BYTES = 40;
+	private static final long EMPTY = 0;
+	private static final long REMOVED = 1;
+
+	// Body record: int magic, int length, int compressed length, SHA-256, then the compressed body.
+	private static final int BODY_HEADER = 44;
+
+	private static final String INDEX_FILE = "index.idx";
+	private static final String SUFFIX = ".seg";
+
+	// Index of the page cache directory in Files.
+	private static final int PAGE_CACHE_INDEX = 5;
+
+	// Singleton design pattern.
+	private static PageCache instance = new PageCache();
+
+	private volatile File directory;
+	private volatile boolean offline;
+
+	// Guarded by this.
+	private MappedByteBuffer index;
+	private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+	private final Map<String, Long> bodies = new HashMap<>(); // SHA-256 of a body to where it's stored.
+	private int entries;
+	private int removed;
+	private long bytes;
+
+	// Metrics
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder revalidations = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	// private constructor, so no other class can create an instance.
+	private PageCache() {}
+
+	public static PageCache getInstance() {
+		return instance;
+	}
+
+	/**
+	* Opens the cache directory and its index.
+	* Called from ServiceHandler.init() once the file paths are set, if there's no directory set the cache isn't used.
+	*
+	* @param offline only use cached pages, never download.
+	*/
+	public synchronized void init(boolean offline) {
+		this.offline = offline;
+		List<String> fileNames = Files.getInstance().getFileNames();
+		if (fileNames.size() <= PAGE_CACHE_INDEX) {
+			return;
+		}
+
+		File dir = new File(fileNames.get(PAGE_CACHE_INDEX));
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			System.out.println("[INFO] Page cache " + dir + " couldn't be created, pages won't be cached");
+			return;
+		}
+
+		directory = null;
+		close();
+		try {
+			File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+			for (File file : files == null ? new File[0] : files) {
+				try {
+					int id = Integer.parseInt(file.getName().substring(0, file.getName().length() - SUFFIX.length()));
+					segments.put(id, new Segment(id, file));
+				} catch (NumberFormatException e) {
+					file.delete();
+				}
+			}
+
+			try (FileChannel channel = FileChannel.open(new File(dir, INDEX_FILE).toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+				index = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + (long) SLOTS * SLOT_BYTES);
+			}
+
+			// Rebuild the index from the segments if it's new or not one of ours.
+			boolean rebuild = index.getInt(0) != INDEX_MAGIC || index.getInt(4) != SLOTS;
+			if (rebuild) {
+				clearIndex();
+			}
+			for (Segment segment : segments.values()) {
+				scan(segment, rebuild);
+			}
+			checkIndex();
+
+			directory = dir;
+			evict();
+			System.out.println("[INFO] Page cache has " + entries + " pages (" + bytes + " bytes)" + (offline ? ", offline" : ""));
+		} catch (IOException e) {
+			System.out.println("[INFO] Page cache " + dir + " couldn't be opened, pages won't be cached");
+			close();
+		}
+	}
+
+	public boolean isOffline() {
+		return offline;
+	}
+
+	/**
+	* Gets a cached page, fresh or not.
+	*
+	* @param url page url, as passed to the PageFetcher.
+	* @return the page, or null if it isn't cached.
+	*/
+	public CachedPage get(String url) {
+		if (directory == null) {
+			return null;
+		}
+
+		String key;
+		try {
+			key = normalize(url);
+		} catch (IOException e) {
+			return null;
+		}
+
+		Segment headSegment;
+		Segment bodySegment;
+		int headOffset;
+		int bodyOffset;
+		long checked;
+		long maxAge;
+		synchronized (this) {
+			int slot = find(hash(key));
+			if (slot < 0) {
+				misses.increment();
+				return null;
+			}
+			int pos = position(slot);
+			headSegment = segments.get(index.getInt(pos + 8));
+			headOffset = index.getInt(pos + 12);
+			bodySegment = segments.get(index.getInt(pos + 16));
+			bodyOffset = index.getInt(pos + 20);
+			checked = index.getLong(pos + 24);
+			maxAge = index.getLong(pos + 32);
+		}
+
+		try {
+			DataInputStream in = readHead(headSegment, headOffset);
+			in.readLong(); // time stored
+			in.readLong(); // max age when stored
+			in.readInt(); // body segment
+			in.readInt(); // body offset
+			if (!in.readUTF().equals(key)) {
+				// Another URL with the same hash.
+				misses.increment();
+				return null;
+			}
+			return new CachedPage(key, in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), checked, maxAge, headSegment, headOffset, bodySegment, bodyOffset);
+		} catch (IOException | RuntimeException e) {
+			// Removed while it was being read.
+			misses.increment();
+			return null;
+		}
+	}
+
+	/**
+	* Stores a page that has just been downloaded. Pages the site says not to store (no-store) aren't.
+	*
+	* @param url page url, as passed to the PageFetcher.
+	* @param finalUrl url after redirects.
+	* @param contentType Content-Type header, or null.
+	* @param etag ETag header, or null.
+	* @param lastModified Last-Modified header, or null.
+	* @param cacheControl Cache-Control header, or null.
+	* @param body the body, unzipped.
+	*/
+	public void put(String url, String finalUrl, String contentType, String etag, String lastModified, String cacheControl, byte[] body) {
+		long maxAge = getMaxAge(cacheControl);
+		if (directory == null || offline || maxAge < 0) {
+			return;
+		}
+
+		String key;
+		try {
+			key = normalize(url);
+		} catch (IOException e) {
+			return;
+		}
+
+		// Compress outside the lock, unless the same body is already stored.
+		byte[] sha = sha256(body);
+		String id = toHex(sha);
+		boolean stored;
+		synchronized (this) {
+			stored = getBody(id) != null;
+		}
+		byte[] compressed = stored ? null : deflate(body);
+
+		synchronized (this) {
+			if (directory == null) {
+				return;
+			}
+
+			try {
+				long now = System.currentTimeMillis();
+				Long bodyLocation = getBody(id);
+				if (bodyLocation == null) {
+					if (compressed == null) {
+						compressed = deflate(body);
+					}
+					bodyLocation = append(bodyRecord(sha, body.length, compressed));
+					bodies.put(id, bodyLocation);
+				}
+
+				long headLocation = append(headRecord(now, maxAge, bodyLocation, key, finalUrl, contentType, etag, lastModified));
+				setSlot(hash(key), headLocation, bodyLocation, now, maxAge);
+				evict();
+			} catch (IOException e) {
+				System.out.println("[INFO] Couldn't cache " + url + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	* Marks a cached page as fresh again, after the site said it hasn't changed (304).
+	*
+	* @param page the cached page the request was made for.
+	* @param cacheControl Cache-Control header of the 304, or null.
+	*/
+	public synchronized void revalidated(CachedPage page, String cacheControl) {
+		revalidations.increment();
+		if (directory == null) {
+			return;
+		}
+
+		int slot = find(hash(page.key));
+		if (slot < 0) {
+			return;
+		}
+		int pos = position(slot);
+
+		// Only if the page hasn't been stored again since.
+		if (index.getInt(pos + 8) == page.headSegment.id && index.getInt(pos + 12) == page.headOffset) {
+			index.putLong(pos + 24, System.currentTimeMillis());
+			index.putLong(pos + 32, Math.max(0, getMaxAge(cacheControl)));
+		}
+	}
+
+	// == Segments ==
+
+	// Where a body with this SHA-256 is stored, unless it's in the oldest segment which will be deleted next.
+	private Long getBody(String id) {
+		Long location = bodies.get(id);
+		if (location != null && segments.size() > 1 && segmentOf(location) == segments.firstKey()) {
+			return null;
+		}
+		return location;
+	}
+
+	/**
+	* Appends a record to the newest segment, starting a new one if it's full.
+	*
+	* @return location of the record.
+	*/
+	private long append(byte[] record) throws IOException {
+		Segment segment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+		if (segment == null || (segment.size > 0 && segment.size + record.length > SEGMENT_BYTES)) {
+			int id = segment == null ? 1 : segment.id + 1;
+			segment = new Segment(id, new File(directory, String.format("%08d", id) + SUFFIX));
+			segments.put(id, segment);
+		}
+
+		long location = location(segment.id, (int) segment.size);
+		ByteBuffer buffer = ByteBuffer.wrap(record);
+		while (buffer.hasRemaining()) {
+			segment.channel.write(buffer, segment.size + buffer.position());
+		}
+		segment.size += record.length;
+		bytes += record.length;
+		return location;
+	}
+
+	/**
+	* Reads every record in a segment, to find its bodies and (if the index was lost) its pages.
+	* A record only partly written, from the server stopping mid write, is cut off.
+	*/
+	private void scan(Segment segment, boolean rebuild) throws IOException {
+		long pos = 0;
+		ByteBuffer header = ByteBuffer.allocate(BODY_HEADER);
+
+		while (pos + 8 <= segment.size) {
+			header.clear();
+			segment.channel.read(header, pos);
+			int magic = header.getInt(0);
+			int length = header.getInt(4);
+
+			if (magic == HEAD_MAGIC && length > 0 && pos + 8 + length <= segment.size) {
+				if (rebuild) {
+					DataInputStream in = readHead(segment, (int) pos);
+					long stored = in.readLong();
+					long maxAge = in.readLong();
+					long body = location(in.readInt(), in.readInt());
+					setSlot(hash(in.readUTF()), location(segment.id, (int) pos), body, stored, maxAge);
+				}
+				pos += 8 + length;
+			}
+			else if (magic == BODY_MAGIC && pos + BODY_HEADER <= segment.size && header.getInt(8) >= 0
+					&& pos + BODY_HEADER + header.getInt(8) <= segment.size) {
+				byte[] sha = new byte[32];
+				header.position(12);
+				header.get(sha);
+				bodies.put(toHex(sha), location(segment.id, (int) pos));
+				pos += BODY_HEADER + header.getInt(8);
+			}
+			else {
+				break;
+			}
+		}
+
+		if (pos < segment.size) {
+			System.out.println("[INFO] Page cache segment " + segment.id + " cut off at " + pos + " bytes");
+			segment.channel.truncate(pos);
+			segment.size = pos;
+		}
+		bytes += segment.size;
+	}
+
+	/**
+	* Deletes the oldest segments while the cache is too big, too full or too old. The newest segment is always kept.
+	*/
+	private void evict() {
+		long now = System.currentTimeMillis();
+		while (segments.size() > 1) {
+			Segment oldest = segments.firstEntry().getValue();
+			if (bytes <= MAX_BYTES && entries < MAX_ENTRIES && now - oldest.file.lastModified() < MAX_AGE) {
+				break;
+			}
+			remove(oldest);
+		}
+	}
+
+	// Deletes a segment and every page with its head or body in it.
+	private void remove(Segment segment) {
+		segments.remove(segment.id);
+		bodies.values().removeIf(location -> segmentOf(location) == segment.id);
+
+		for (int slot = 0; slot < SLOTS; slot++) {
+			int pos = position(slot);
+			long hash = index.getLong(pos);
+			if (hash != EMPTY && hash != REMOVED && (index.getInt(pos + 8) == segment.id || index.getInt(pos + 16) == segment.id)) {
+				index.putLong(pos, REMOVED);
+				entries--;
+				removed++;
+			}
+		}
+		if (removed > SLOTS / 4) {
+			rehash();
+		}
+
+		bytes -= segment.size;
+		segment.close();
+		segment.file.delete();
+	}
+
+	private void close() {
+		for (Segment segment : segments.values()) {
+			segment.close();
+		}
+		segments.clear();
+		bodies.clear();
+		index = null;
+		entries = 0;
+		removed = 0;
+		bytes = 0;
+	}
+
+	// == Index ==
+
+	private static int position(int slot) {
+		return INDEX_HEADER + slot * SLOT_BYTES;
+	}
+
+	// Slot holding the hash, or -1.
+	private int find(long hash) {
+		int slot = (int) (hash ^ (hash >>> 32)) & (SLOTS - 1);
+		for (int i = 0; i < SLOTS; i++) {
+			long h = index.getLong(position(slot));
+			if (h == EMPTY) {
+				return -1;
+			}
+			if (h == hash) {
+				return slot;
+			}
+			slot = (slot + 1) & (SLOTS - 1);
+		}
+		return -1;
+	}
+
+	private void setSlot(long hash, long head, long body, long checked, long maxAge) {
+		int slot = find(hash);
+		if (slot < 0) {
+			if (entries + removed >= MAX_ENTRIES) {
+				rehash();
+			}
+			if (entries >= MAX_ENTRIES) {
+				// Full, evict() will make room for the next page.
+				return;
+			}
+
+			slot = (int) (hash ^ (hash >>> 32)) & (SLOTS - 1);
+			while (index.getLong(position(slot)) != EMPTY && index.getLong(position(slot)) != REMOVED) {
+				slot = (slot + 1) & (SLOTS - 1);
+			}
+			if (index.getLong(position(slot)) == REMOVED) {
+				removed--;
+			}
+			entries++;
+		}
+
+		int pos = position(slot);
+		index.putInt(pos + 8, segmentOf(head));
+		index.putInt(pos + 12, offsetOf(head));
+		index.putInt(pos + 16, segmentOf(body));
+		index.putInt(pos + 20, offsetOf(body));
+		index.putLong(pos + 24, checked);
+		index.putLong(pos + 32, maxAge);
+		// Hash last, so the slot is only in use once it's complete.
+		index.putLong(pos, hash);
+	}
+
+	private void clearIndex() {
+		for (int pos = 0; pos < INDEX_HEADER + SLOTS * SLOT_BYTES; pos += 8) {
+			index.putLong(pos, 0);
+		}
+		index.putInt(0, INDEX_MAGIC);
+		index.putInt(4, SLOTS);
+		entries = 0;
+		removed = 0;
+	}
+
+	// Removes slots pointing to segments that are gone or records past the end of a segment, and counts the rest.
+	private void checkIndex() {
+		entries = 0;
+		removed = 0;
+		for (int slot = 0; slot < SLOTS; slot++) {
+			int pos = position(slot);
+			long hash = index.getLong(pos);
+			if (hash == REMOVED) {
+				removed++;
+			}
+			else if (hash != EMPTY) {
+				Segment head = segments.get(index.getInt(pos + 8));
+				Segment body = segments.get(index.getInt(pos + 16));
+				if (head == null || body == null || index.getInt(pos + 12) >= head.size || index.getInt(pos + 20) >= body.size) {
+					index.putLong(pos, REMOVED);
+					removed++;
+				}
+				else {
+					entries++;
+				}
+			}
+		}
+		if (removed > SLOTS / 4) {
+			rehash();
+		}
+	}
+
+	// Puts every page back in the index, dropping the removed slots so lookups stay short.
+	private void rehash() {
+		List<long[]> live = new ArrayList<>(entries);
+		for (int slot = 0; slot < SLOTS; slot++) {
+			int pos = position(slot);
+			long hash = index.getLong(pos);
+			if (hash != EMPTY && hash != REMOVED) {
+				live.add(new long[] { hash, location(index.getInt(pos + 8), index.getInt(pos + 12)),
+						location(index.getInt(pos + 16), index.getInt(pos + 20)), index.getLong(pos + 24), index.getLong(pos + 32) });
+			}
+		}
+
+		clearIndex();
+		for (long[] slot : live) {
+			setSlot(slot[0], slot[1], slot[2], slot[3], slot[4]);
+		}
+	}
+
+	// == Records ==
+
+	private static byte[] headRecord(long stored, long maxAge, long body, String key, String url, String contentType, String etag, String lastModified) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(bos);
+		out.writeInt(HEAD_MAGIC);
+		out.writeInt(0); // length, set below
+		out.writeLong(stored);
+		out.writeLong(maxAge);
+		out.writeInt(segmentOf(body));
+		out.writeInt(offsetOf(body));
+		out.writeUTF(key);
+		out.writeUTF(url);
+		out.writeUTF(contentType == null ? "" : contentType);
+		out.writeUTF(etag == null ? "" : etag);
+		out.writeUTF(lastModified == null ? "" : lastModified);
+		out.flush();
+
+		byte[] record = bos.toByteArray();
+		ByteBuffer.wrap(record).putInt(4, record.length - 8);
+		return record;
+	}
+
+	private static byte[] bodyRecord(byte[] sha, int length, byte[] compressed) {
+		ByteBuffer record = ByteBuffer.allocate(BODY_HEADER + compressed.length);
+		record.putInt(BODY_MAGIC);
+		record.putInt(length);
+		record.putInt(compressed.length);
+		record.put(sha);
+		record.put(compressed);
+		return record.array();
+	}
+
+	// Head record after the magic and length.
+	private static DataInputStream readHead(Segment segment, int offset) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(8);
+		read(segment, header, offset);
+		if (header.getInt(0) != HEAD_MAGIC) {
+			throw new IOException("Not a head record");
+		}
+
+		ByteBuffer record = ByteBuffer.allocate(header.getInt(4));
+		read(segment, record, offset + 8);
+		return new DataInputStream(new ByteArrayInputStream(record.array()));
+	}
+
+	private static byte[] readBody(Segment segment, int offset) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(BODY_HEADER);
+		read(segment, header, offset);
+		if (header.getInt(0) != BODY_MAGIC) {
+			throw new IOException("Not a body record");
+		}
+
+		ByteBuffer compressed = ByteBuffer.allocate(header.getInt(8));
+		read(segment, compressed, offset + BODY_HEADER);
+		return inflate(compressed.array(), header.getInt(4));
+	}
+
+	private static void read(Segment segment, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (segment.channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Record cut off");
+			}
+		}
+	}
+
+	private static byte[] deflate(byte[] body) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(body);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static byte[] inflate(byte[] compressed, int length) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			byte[] body = new byte[length];
+			int n = 0;
+			while (n < length && !inflater.finished()) {
+				int read = inflater.inflate(body, n, length - n);
+				if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				n += read;
+			}
+			if (n != length) {
+				throw new IOException("Cached body is corrupt");
+			}
+			return body;
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	// == Keys ==
+
+	/**
+	* Normalizes a URL so the same page has the same key: lower case scheme and host, no default port and no fragment.
+	*/
+	static String normalize(String url) throws IOException {
+		URI uri = PageFetcher.toUri(url);
+		if (uri.getHost() == null) {
+			throw new IOException("No host: " + url);
+		}
+
+		String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+		int port = uri.getPort();
+		if ((scheme.equals("http") && port == 80) || (scheme.equals("https") && port == 443)) {
+			port = -1;
+		}
+		String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+
+		return scheme + "://" + uri.getHost().toLowerCase(Locale.ROOT) + (port == -1 ? "" : ":" + port) + path
+				+ (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+	}
+
+	/**
+	* How long a page is fresh for from its Cache-Control header: max-age, 0 for no-cache, or TIME_TO_LIVE if neither.
+	*
+	* @return milliseconds, or -1 if the page mustn't be stored (no-store).
+	*/
+	static long getMaxAge(String cacheControl) {
+		if (cacheControl == null) {
+			return TIME_TO_LIVE;
+		}
+
+		long maxAge = TIME_TO_LIVE;
+		boolean noCache = false;
+		for (String directive : cacheControl.toLowerCase(Locale.ROOT).split(",")) {
+			directive = directive.trim();
+			if (directive.equals("no-store")) {
+				return -1;
+			}
+			if (directive.equals("no-cache")) {
+				noCache = true;
+			}
+			else if (directive.startsWith("max-age=")) {
+				try {
+					maxAge = Math.max(0, Long.parseLong(directive.substring(8).replace("\"", "").trim())) * 1000;
+				} catch (NumberFormatException e) {
+					// Use the default.
+				}
+			}
+		}
+		return noCache ? 0 : maxAge;
+	}
+
+	// 64 bit FNV-1a, as in the ResultStore. The URL is kept in the head record so a clash is never mistaken for a hit.
+	private static long hash(String key) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		// EMPTY and REMOVED mark free slots.
+		return h == EMPTY || h == REMOVED ? h + 2 : h;
+	}
+
+	private static byte[] sha256(byte[] body) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(body);
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	// A location is the segment id in the high 32 bits and the offset in the low 32 bits.
+	private static long location(int segment, int offset) {
+		return ((long) segment << 32) | (offset & 0xFFFFFFFFL);
+	}
+
+	private static int segmentOf(long location) {
+		return (int) (location >>> 32);
+	}
+
+	private static int offsetOf(long location) {
+		return (int) location;
+	}
+
+	// == Metrics ==
+
+	public synchronized int size() {
+		return entries;
+	}
+
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d pages, %.1fMB in %d segments, %d hits, %d revalidated, %d misses%s", entries,
+				bytes / (1024.0 * 1024), segments.size(), hits.sum(), revalidations.sum(), misses.sum(), offline ? ", offline" : "");
+	}
+
+	/**
+	* A cached page, from get(). The body is only read when it's needed.
+	*/
+	public class CachedPage {
+		private final String key;
+		private final String url;
+		private final String contentType;
+		private final String etag;
+		private final String lastModified;
+		private final long checked;
+		private final long maxAge;
+		private final Segment headSegment;
+		private final int headOffset;
+		private final Segment bodySegment;
+		private final int bodyOffset;
+
+		private CachedPage(String key, String url, String contentType, String etag, String lastModified, long checked, long maxAge,
+				Segment headSegment, int headOffset, Segment bodySegment, int bodyOffset) {
+			this.key = key;
+			this.url = url;
+			this.contentType = contentType.isEmpty() ? null : contentType;
+			this.etag = etag.isEmpty() ? null : etag;
+			this.lastModified = lastModified.isEmpty() ? null : lastModified;
+			this.checked = checked;
+			this.maxAge = maxAge;
+			this.headSegment = headSegment;
+			this.headOffset = headOffset;
+			this.bodySegment = bodySegment;
+			this.bodyOffset = bodyOffset;
+		}
+
+		/**
+		* Url after redirects, used as the base for the page's links.
+		*/
+		public String getUrl() {
+			return url;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+
+		public String getETag() {
+			return etag;
+		}
+
+		public String getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		* If the page can be used without asking the site if it has changed.
+		*/
+		public boolean isFresh() {
+			return System.currentTimeMillis() - checked < maxAge;
+		}
+
+		/**
+		* Reads and uncompresses the body.
+		*
+		* @throws IOException if the page has been removed from the cache since get().
+		*/
+		public byte[] getBody() throws IOException {
+			byte[] body = readBody(bodySegment, bodyOffset);
+			hits.increment();
+			return body;
+		}
+	}
+
+	// An append-only segment file.
+	private static final class Segment {
+		private final int id;
+		private final File file;
+		private final FileChannel channel;
+		private long size;
+
+		Segment(int id, File file) throws IOException {
+			this.id = id;
+			this.file = file;
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+			size = channel.size();
+		}
+
+		void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// Nothing more to do with it.
+			}
+		}
+	}
+}
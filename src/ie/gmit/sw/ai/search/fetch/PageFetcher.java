@@ -0,0 +1,463 @@
+package ie.gmit.sw.ai.search.fetch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+import ie.gmit.sw.ai.search.NodeParser;
+import ie.gmit.sw.ai.search.searches.BeamSearch;
+import ie.gmit.sw.ai.search.searches.BestFirstSearch;
+import ie.gmit.sw.ai.search.searches.RecursiveDepthFirstSearch;
+
+/**
+* Downloads and parses webpages for the searches, without a thread waiting on the network for each one.
+*
+* Previously each search called Jsoup.connect(link).get() for every link, so every thread in the pool spent most of its
+* time blocked on the network, one page at a time, and each download opened a new connection.
+* Instead every page is fetched with one shared java.net.http.HttpClient using its async API:
+*
+* - Requests are sent without blocking and the response is read as it arrives, so a few threads can keep hundreds
+*   of downloads going at once. At most MAX_IN_FLIGHT are sent at a time, the rest wait in a queue until one finishes.
+* - The client keeps connections open and reuses them (and uses HTTP/2 where the site supports it), so fetching many pages
+*   from the same site doesn't connect each time.
+* - Each request has a timeout, and bodies are cut off at MAX_BODY_SIZE, the same as Jsoup does.
+* - Completed bodies are handed to a small pool of parser threads (one per core), which turn them into Documents.
+* - Pages are kept in the PageCache. A fresh cached page is parsed without sending anything, and a stale one is asked
+*   for with If-None-Match / If-Modified-Since so the site can answer 304 rather than send it again. In offline mode
+*   only cached pages are used.
+*
+* The searches start the downloads for all the children of a node together with fetch() and then take the Documents as
+* they're ready, rather than downloading them one after another.
+*
+* Pages are fetched the same way Jsoup did: redirects are followed, an error status or a content type that isn't text
+* or XML is an IOException, and the charset is taken from the Content-Type header or the page itself.
+*
+* I have implemented a Singleton design pattern for this so every request shares the same connections and limits.
+*
+* @see PageCache
+* @see NodeParser
+* @see BestFirstSearch
+* @see BeamSearch
+* @see RecursiveDepthFirstSearch
+* @author Matthew Sloyan
+*/
+public class PageFetcher {
+
+	// Most requests sent at once, across every search.
+	public static final int MAX_IN_FLIGHT = 256;
+
+	private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+	private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30); // Same as Jsoup.
+	private static final int MAX_BODY_SIZE = 1024 * 1024; // Same as Jsoup, 1MB.
+	private static final String USER_AGENT = "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_11_6) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/53.0.2785.143 Safari/537.36";
+
+	// Singleton design pattern.
+	private static PageFetcher instance = new PageFetcher();
+
+	private final HttpClient client = HttpClient.newBuilder()
+			.connectTimeout(CONNECT_TIMEOUT)
+			.followRedirects(HttpClient.Redirect.ALWAYS)
+			.build();
+
+	// Parses completed bodies into Documents.
+	private final ExecutorService parsers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+		Thread t = new Thread(r, "page-parser");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final Queue<Fetch> waiting = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	// private constructor, so no other class can create an instance.
+	private PageFetcher() {}
+
+	public static PageFetcher getInstance() {
+		return instance;
+	}
+
+	/**
+	* Starts downloading a page. This never blocks, the page is sent when fewer than MAX_IN_FLIGHT are being fetched.
+	*
+	* @param url page to fetch.
+	* @return the parsed page, or an IOException if it couldn't be fetched.
+	*/
+	public CompletableFuture<Document> fetch(String url) {
+		CompletableFuture<Document> page = new CompletableFuture<>();
+		PageCache cache = PageCache.getInstance();
+		PageCache.CachedPage cached = cache.get(url);
+		
+		// Fresh enough to use without asking the site, or there's no network to ask.
+		if (cached != null && (cached.isFresh() || cache.isOffline())) {
+			parsers.execute(() -> parse(cached, page));
+			return page;
+		}
+		if (cache.isOffline()) {
+			page.completeExceptionally(new IOException("Page isn't cached and the page cache is offline: " + url));
+			return page;
+		}
+		
+		try {
+			waiting.add(new Fetch(url, newRequest(url, cached), page, cached));
+		} catch (IOException e) {
+			page.completeExceptionally(e);
+			return page;
+		}
+		sendWaiting();
+		return page;
+	}
+
+	/**
+	* Starts downloading every page, so they're all fetched at the same time.
+	*
+	* @return the pages in the same order as the urls.
+	*/
+	public List<CompletableFuture<Document>> fetchAll(List<String> urls) {
+		List<CompletableFuture<Document>> pages = new ArrayList<>(urls.size());
+		for (String url : urls) {
+			pages.add(fetch(url));
+		}
+		return pages;
+	}
+
+	/**
+	* Downloads a page and waits for it, used where the page is needed before anything else can be done.
+	*/
+	public Document get(String url) throws IOException {
+		return get(fetch(url));
+	}
+
+	/**
+	* Waits for a page started with fetch().
+	*
+	* @throws IOException if the page couldn't be fetched.
+	*/
+	public static Document get(CompletableFuture<Document> page) throws IOException {
+		try {
+			return page.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	/**
+	* Sends waiting requests while there's room.
+	*/
+	private void sendWaiting() {
+		while (!waiting.isEmpty()) {
+			int n = inFlight.get();
+			if (n >= MAX_IN_FLIGHT) {
+				return;
+			}
+			if (!inFlight.compareAndSet(n, n + 1)) {
+				continue;
+			}
+
+			Fetch fetch = waiting.poll();
+			if (fetch == null) {
+				// Another thread sent it.
+				inFlight.decrementAndGet();
+				continue;
+			}
+			send(fetch);
+		}
+	}
+
+	private void send(Fetch fetch) {
+		CompletableFuture<HttpResponse<byte[]>> sent;
+		try {
+			sent = client.sendAsync(fetch.request, this::handleResponse);
+		} catch (RuntimeException e) {
+			inFlight.decrementAndGet();
+			fetch.page.completeExceptionally(new IOException(e));
+			return;
+		}
+
+		sent.whenComplete((response, e) -> {
+			// Room for another request.
+			inFlight.decrementAndGet();
+			sendWaiting();
+
+			if (e != null) {
+				Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+				fetch.page.completeExceptionally(cause instanceof IOException ? cause : new IOException(cause));
+			}
+			else {
+				parsers.execute(() -> parse(response, fetch));
+			}
+		});
+	}
+
+	/**
+	* Decides what to do with the body once the status and headers are in. Bodies that Jsoup would have refused
+	* aren't kept.
+	*/
+	private HttpResponse.BodySubscriber<byte[]> handleResponse(HttpResponse.ResponseInfo info) {
+		if (info.statusCode() < 200 || info.statusCode() >= 300 || !isSupported(getContentType(info.headers()))) {
+			return HttpResponse.BodySubscribers.replacing(null);
+		}
+		return new LimitedBody(MAX_BODY_SIZE);
+	}
+
+	/**
+	* Parses a completed body into a Document and caches it, on a parser thread.
+	*/
+	private void parse(HttpResponse<byte[]> response, Fetch fetch) {
+		CompletableFuture<Document> page = fetch.page;
+		String url = response.uri().toString();
+		HttpHeaders headers = response.headers();
+		try {
+			// Not changed since it was cached.
+			if (response.statusCode() == 304 && fetch.cached != null) {
+				PageCache.getInstance().revalidated(fetch.cached, headers.firstValue("Cache-Control").orElse(null));
+				parse(fetch.cached, page);
+				return;
+			}
+			
+			String contentType = getContentType(headers);
+			if (response.statusCode() < 200 || response.statusCode() >= 300) {
+				throw new IOException("HTTP error fetching URL. Status=" + response.statusCode() + ", URL=" + url);
+			}
+			if (!isSupported(contentType) || response.body() == null) {
+				throw new IOException("Unhandled content type. Must be text/*, application/xml, or application/xhtml+xml. Mimetype=" + contentType + ", URL=" + url);
+			}
+
+			byte[] body = response.body();
+			if (headers.firstValue("Content-Encoding").orElse("").equalsIgnoreCase("gzip")) {
+				body = gunzip(new ByteArrayInputStream(body));
+			}
+
+			PageCache.getInstance().put(fetch.url, url, contentType, headers.firstValue("ETag").orElse(null),
+					headers.firstValue("Last-Modified").orElse(null), headers.firstValue("Cache-Control").orElse(null), body);
+
+			// If there's no charset in the header Jsoup looks for one in the page.
+			page.complete(Jsoup.parse(new ByteArrayInputStream(body), getCharset(contentType), url));
+		} catch (IOException | RuntimeException e) {
+			page.completeExceptionally(e instanceof IOException ? e : new IOException(e));
+		}
+	}
+
+	/**
+	* Parses a cached page into a Document, on a parser thread.
+	*/
+	private void parse(PageCache.CachedPage cached, CompletableFuture<Document> page) {
+		try {
+			page.complete(Jsoup.parse(new ByteArrayInputStream(cached.getBody()), getCharset(cached.getContentType()), cached.getUrl()));
+		} catch (IOException | RuntimeException e) {
+			page.completeExceptionally(e instanceof IOException ? e : new IOException(e));
+		}
+	}
+
+	/**
+	* Creates the request for a page, asking only for changes if there's a cached copy.
+	*/
+	private HttpRequest newRequest(String url, PageCache.CachedPage cached) throws IOException {
+		try {
+			HttpRequest.Builder builder = HttpRequest.newBuilder(toUri(url))
+					.timeout(REQUEST_TIMEOUT)
+					.header("User-Agent", USER_AGENT)
+					.header("Accept-Encoding", "gzip");
+			
+			if (cached != null && cached.getETag() != null) {
+				builder.header("If-None-Match", cached.getETag());
+			}
+			if (cached != null && cached.getLastModified() != null) {
+				builder.header("If-Modified-Since", cached.getLastModified());
+			}
+			return builder.GET().build();
+		} catch (IllegalArgumentException e) {
+			throw new MalformedURLException(e.getMessage());
+		}
+	}
+
+	/**
+	* Turns a link into a URI, encoding characters browsers allow in links but URIs don't (like spaces).
+	* The fragment (#...) is dropped as it's never sent.
+	*/
+	static URI toUri(String url) throws IOException {
+		int hash = url.indexOf('#');
+		if (hash >= 0) {
+			url = url.substring(0, hash);
+		}
+
+		String lower = url.toLowerCase(Locale.ROOT);
+		if (!lower.startsWith("http://") && !lower.startsWith("https://")) {
+			throw new MalformedURLException("Only http & https protocols supported: " + url);
+		}
+
+		try {
+			return new URI(url);
+		} catch (URISyntaxException e) {
+			// Fall through and encode it.
+		}
+
+		StringBuilder sb = new StringBuilder(url.length() + 16);
+		for (byte b : url.getBytes(StandardCharsets.UTF_8)) {
+			int c = b & 0xFF;
+			if (c <= ' ' || c >= 0x7F || "\"<>\\^`{|}".indexOf(c) >= 0) {
+				sb.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16))).append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+			}
+			else {
+				sb.append((char) c);
+			}
+		}
+
+		try {
+			return new URI(sb.toString());
+		} catch (URISyntaxException e) {
+			throw new MalformedURLException(e.getMessage());
+		}
+	}
+
+	private static String getContentType(HttpHeaders headers) {
+		return headers.firstValue("Content-Type").orElse(null);
+	}
+
+	// Same as Jsoup, text/* or XML. No content type is allowed.
+	private static boolean isSupported(String contentType) {
+		if (contentType == null) {
+			return true;
+		}
+		String type = contentType.toLowerCase(Locale.ROOT).trim();
+		return type.startsWith("text/") || type.matches("(application|text)/\\w*\\+?xml.*");
+	}
+
+	private static String getCharset(String contentType) {
+		if (contentType == null) {
+			return null;
+		}
+		for (String param : contentType.split(";")) {
+			param = param.trim();
+			if (param.regionMatches(true, 0, "charset=", 0, 8)) {
+				String charset = param.substring(8).replace("\"", "").replace("'", "").trim();
+				try {
+					if (Charset.isSupported(charset)) {
+						return charset;
+					}
+				} catch (IllegalArgumentException e) {
+					// Not a charset name, let Jsoup look in the page.
+				}
+			}
+		}
+		return null;
+	}
+
+	// Unzips a body, stopping at MAX_BODY_SIZE. A body cut off part way is kept up to where it ends.
+	private static byte[] gunzip(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		try (GZIPInputStream gzip = new GZIPInputStream(in)) {
+			int n;
+			while (out.size() < MAX_BODY_SIZE && (n = gzip.read(buffer, 0, Math.min(buffer.length, MAX_BODY_SIZE - out.size()))) > 0) {
+				out.write(buffer, 0, n);
+			}
+		} catch (EOFException e) {
+			// Cut off at MAX_BODY_SIZE while downloading.
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	* Collects a body as it arrives, up to a limit. Once it has enough the rest of the download is cancelled.
+	*/
+	private static final class LimitedBody implements HttpResponse.BodySubscriber<byte[]> {
+		private final int limit;
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream(16 * 1024);
+		private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+		private Flow.Subscription subscription;
+
+		LimitedBody(int limit) {
+			this.limit = limit;
+		}
+
+		@Override
+		public CompletionStage<byte[]> getBody() {
+			return result;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(1);
+		}
+
+		@Override
+		public void onNext(List<ByteBuffer> buffers) {
+			for (ByteBuffer buffer : buffers) {
+				int n = Math.min(buffer.remaining(), limit - body.size());
+				byte[] bytes = new byte[n];
+				buffer.get(bytes);
+				body.write(bytes, 0, n);
+			}
+
+			if (body.size() >= limit) {
+				subscription.cancel();
+				result.complete(body.toByteArray());
+			}
+			else {
+				subscription.request(1);
+			}
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			result.completeExceptionally(throwable);
+		}
+
+		@Override
+		public void onComplete() {
+			result.complete(body.toByteArray());
+		}
+	}
+
+	private static final class Fetch {
+		private final String url;
+		private final HttpRequest request;
+		private final CompletableFuture<Document> page;
+		private final PageCache.CachedPage cached; // null if the page isn't cached.
+
+		Fetch(String url, HttpRequest request, CompletableFuture<Document> page, PageCache.CachedPage cached) {
+			this.url = url;
+			this.request = request;
+			this.page = page;
+			this.cached = cached;
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package ie.gmit.sw.ai.search.heuristics;
+
+import ie.gmit.sw.ai.search.Scoring;
+
+/**
+* Decorator that puts the HeuristicCache in front of any heuristic, so Scoring doesn't need to know about caching.
+* Open/Close Principle (OCP), the Fuzzy, Encog and Custom NN heuristics don't change at all.
+*
+* Scores are cached against the heuristic, the version of its model and the four inputs. 
+* For batches only the pages that miss are passed on to the heuristic, still as one batch.
+*
+* @see HeuristicCache
+* @see Heuristicable
+* @see Scoring
+* @author Matthew Sloyan
+*/
+public class CachedHeuristic implements Heuristicable {
+
+	private Heuristicable heuristic;
+	private int id;
+	private HeuristicCache cache = HeuristicCache.getInstance();
+
+	/**
+	* @param heuristic heuristic to cache.
+	* @param id heuristic number, the same as the user option (1 = Fuzzy, 2 = Encog, 3 = Custom NN).
+	*/
+	public CachedHeuristic(Heuristicable heuristic, int id) {
+		super();
+		this.heuristic = heuristic;
+		this.id = id;
+	}
+
+	public int getHeuristicScore(int meta, int title, int headings, int body) {
+		long version = heuristic.getModelVersion();
+		cache.checkVersion(id, version);
+
+		long key = cache.key(id, version, meta, title, headings, body);
+		if (key < 0) {
+			return heuristic.getHeuristicScore(meta, title, headings, body);
+		}
+
+		int score = cache.get(key);
+		if (score < 0) {
+			score = heuristic.getHeuristicScore(meta, title, headings, body);
+			cache.put(key, score);
+		}
+		return score;
+	}
+
+	public void getHeuristicScores(int[] features, int count, int[] scores) {
+		long version = heuristic.getModelVersion();
+		cache.checkVersion(id, version);
+
+		// Look up every page, and gather the misses into their own batch.
+		long[] keys = new long[count];
+		int[] missed = new int[count];
+		int misses = 0;
+
+		for (int i = 0, f = 0; i < count; i++, f += FEATURES) {
+			keys[i] = cache.key(id, version, features[f], features[f + 1], features[f + 2], features[f + 3]);
+			scores[i] = keys[i] < 0 ? -1 : cache.get(keys[i]);
+			if (scores[i] < 0) {
+				missed[misses++] = i;
+			}
+		}
+
+		if (misses == 0) {
+			return;
+		}
+
+		int[] missedFeatures = new int[misses * FEATURES];
+		for (int m = 0; m < misses; m++) {
+			System.arraycopy(features, missed[m] * FEATURES, missedFeatures, m * FEATURES, FEATURES);
+		}
+
+		int[] missedScores = new int[misses];
+		heuristic.getHeuristicScores(missedFeatures, misses, missedScores);
+
+		for (int m = 0; m < misses; m++) {
+			int i = missed[m];
+			scores[i] = missedScores[m];
+			if (keys[i] >= 0) {
+				cache.put(keys[i], scores[i]);
+			}
+		}
+	}
+
+	public long getModelVersion() {
+		return heuristic.getModelVersion();
+	}
+
+	public void trainNeuralNetwork() {
+		heuristic.trainNeuralNetwork();
+	}
+}
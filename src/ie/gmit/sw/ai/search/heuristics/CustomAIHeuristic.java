@@ -1,9 +1,7 @@
 package ie.gmit.sw.ai.search.heuristics;
 
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
@@ -12,7 +10,6 @@ import ie.gmit.sw.ai.nn.NeuralNetwork;
 import ie.gmit.sw.ai.nn.Utils;
 import ie.gmit.sw.ai.nn.activator.Activator;
 import ie.gmit.sw.ai.search.Scoring;
-import ie.gmit.sw.ai.search.models.Files;
 
 /**
  * Class that handles a custom backpropagation Neural Network. 
@@ -26,6 +23,9 @@ import ie.gmit.sw.ai.search.models.Files;
 public class CustomAIHeuristic implements Heuristicable {
 
 	public static final String FILENAME = "WebContent/res/model.ser";
+	
+	// Per thread inference buffers for the shared network.
+	private static final ThreadLocal<NeuralNetwork.Context> contexts = new ThreadLocal<>();
 
 	// Sample training data
 	double[][] input = {
@@ -53,34 +53,79 @@ public class CustomAIHeuristic implements Heuristicable {
 	/**
 	 * Using the serialized model.ser file get the predicted results for the parameters passed
 	 * in (Meta, title, heading and body score) and return result to Scoring.
+	 * The model is loaded once and held by the ModelRegistry, rather than read from disk on every call.
 	 * 
 	 * @see Heuristicable
 	 * @see Scoring
+	 * @see ModelRegistry
 	 * @author Matthew Sloyan
 	 */
 	public int getHeuristicScore(int meta, int title, int headings, int body) {
-		String fileName = Files.getInstance().getFileNames().get(3);
-
-		// Read in the serialized NeuralNetwork object.
-		NeuralNetwork nn = null;
-		try {
-			FileInputStream fileIn = new FileInputStream(fileName);
-			ObjectInputStream in = new ObjectInputStream(fileIn);
-			nn = (NeuralNetwork) in.readObject();
-			in.close();
-			fileIn.close();
-		} catch (Exception i) {}
+		// Get the shared, deserialized NeuralNetwork object.
+		NeuralNetwork nn = ModelRegistry.getInstance().getNeuralNetwork();
+		if (nn == null) {
+			return 0;
+		}
+		
+		// Each thread reuses its own buffers, so the one network serves all threads without allocating.
+		NeuralNetwork.Context ctx = contexts.get();
+		if (ctx == null || !ctx.fits(nn)) {
+			ctx = nn.newContext();
+			contexts.set(ctx);
+		}
+		
+		double[] test = ctx.getInputs();
+		test[0] = meta;
+		test[1] = title;
+		test[2] = headings;
+		test[3] = body;
 
 		// Get index of returned results consistent with Fuzzy.
 		// Low = 0, Medium = 1, High = 2;
-		double[] result = null;
-		try {
-			double[] test = { meta, title, headings, body};
-			result = nn.process(test);
-		} catch (Exception e) {
+		// The context may be bigger than one row if this thread has scored a batch, so only check the first row.
+		return Utils.getMaxIndex(nn.process(ctx), 0, nn.getOutputLayer().length);
+	}
+	
+	/**
+	 * Scores a whole batch of pages in one pass through the network (see NeuralNetwork.process(Context, int)),
+	 * rather than one feature vector at a time.
+	 * 
+	 * @see Heuristicable
+	 * @see NeuralNetwork
+	 */
+	public void getHeuristicScores(int[] features, int count, int[] scores) {
+		NeuralNetwork nn = ModelRegistry.getInstance().getNeuralNetwork();
+		if (nn == null) {
+			java.util.Arrays.fill(scores, 0, count, 0);
+			return;
+		}
+		
+		// Grow this thread's buffers if the batch is bigger than any before.
+		NeuralNetwork.Context ctx = contexts.get();
+		if (ctx == null || !ctx.fits(nn) || ctx.getCapacity() < count) {
+			ctx = nn.newContext(Math.max(count, ctx == null ? 1 : ctx.getCapacity()));
+			contexts.set(ctx);
+		}
+		
+		double[] test = ctx.getInputs();
+		for (int i = 0; i < count * FEATURES; i++) {
+			test[i] = features[i];
+		}
+		
+		double[] result = nn.process(ctx, count);
+		int outputs = nn.getOutputLayer().length;
+		for (int i = 0; i < count; i++) {
+			scores[i] = Utils.getMaxIndex(result, i * outputs, outputs);
 		}
+	}
 
-		return Utils.getMaxIndex(result);
+	/**
+	 * Version of model.ser currently loaded in the ModelRegistry.
+	 * 
+	 * @see ModelRegistry
+	 */
+	public long getModelVersion() {
+		return ModelRegistry.getInstance().getNeuralNetworkVersion();
 	}
 
 	/**
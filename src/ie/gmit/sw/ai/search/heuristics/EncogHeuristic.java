@@ -14,7 +14,6 @@ import org.encog.neural.networks.training.propagation.resilient.ResilientPropaga
 import org.encog.persist.EncogDirectoryPersistence;
 
 import ie.gmit.sw.ai.search.Scoring;
-import ie.gmit.sw.ai.search.models.Files;
 
 /**
 * Class that handles Encog Heuristic implementation.
@@ -27,6 +26,10 @@ public class EncogHeuristic implements Heuristicable {
 	
 	public static final String FILENAME = "WebContent/res/model.eg";
 	
+	// Per thread arrays used when scoring a batch.
+	private static final ThreadLocal<double[]> inputs = ThreadLocal.withInitial(() -> new double[FEATURES]);
+	private static final ThreadLocal<double[]> outputs = ThreadLocal.withInitial(() -> new double[3]);
+	
 	// Sample training data
 	double[][] input = { 
 		// Low
@@ -55,14 +58,18 @@ public class EncogHeuristic implements Heuristicable {
 	/**
 	* Using the model.eg file get the predicted results for the parameters passed in
 	* (Meta, title, heading and body score) and return result to Scoring.
+	* The model is loaded once and held by the ModelRegistry, rather than read from disk on every call.
 	* 
 	* @see Heuristicable
 	* @see Scoring
+	* @see ModelRegistry
 	* @author Matthew Sloyan
 	*/
 	public int getHeuristicScore(int meta, int title, int headings, int body) {
-		String fileName = Files.getInstance().getFileNames().get(2);
-		BasicNetwork network = (BasicNetwork)EncogDirectoryPersistence.loadObject(new File(fileName));
+		BasicNetwork network = ModelRegistry.getInstance().getEncogNetwork();
+		if (network == null) {
+			return 0;
+		}
 		
 		// Set up data and pass in variables.
 		MLData input = new BasicMLData(4);
@@ -85,6 +92,49 @@ public class EncogHeuristic implements Heuristicable {
 		return score;
 	}
 	
+	/**
+	* Scores a whole batch of pages, getting the network from the registry once and reusing this thread's
+	* input and output arrays rather than creating MLData objects for each page.
+	* Encog's FlatNetwork has no batch compute, so each row is still computed in turn.
+	* 
+	* @see Heuristicable
+	*/
+	public void getHeuristicScores(int[] features, int count, int[] scores) {
+		BasicNetwork network = ModelRegistry.getInstance().getEncogNetwork();
+		if (network == null) {
+			java.util.Arrays.fill(scores, 0, count, 0);
+			return;
+		}
+		
+		double[] input = inputs.get();
+		double[] output = outputs.get();
+		
+		for (int p = 0, f = 0; p < count; p++, f += FEATURES) {
+			for (int i = 0; i < FEATURES; i++) {
+				input[i] = features[f + i];
+			}
+			network.compute(input, output);
+			
+			// Same as above, Low = 0, Medium = 1, High = 2;
+			int score = 0;
+			for (int i = 0; i < 3; i++) {
+				if ((int) Math.round(output[i]) == 1) {
+					score = i;
+				}
+			}
+			scores[p] = score;
+		}
+	}
+	
+	/**
+	* Version of model.eg currently loaded in the ModelRegistry.
+	* 
+	* @see ModelRegistry
+	*/
+	public long getModelVersion() {
+		return ModelRegistry.getInstance().getEncogVersion();
+	}
+	
 	/**
 	* Used to train the neural netword myself using the training data I created below.
 	* On average it trains with a 96% accuracy and does it within a second.
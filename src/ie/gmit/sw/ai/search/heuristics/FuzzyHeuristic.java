@@ -1,20 +1,37 @@
 package ie.gmit.sw.ai.search.heuristics;
 
+import ie.gmit.sw.ai.fuzzy.FuzzyEngine;
+import ie.gmit.sw.ai.fuzzy.FuzzyEngineCache;
 import ie.gmit.sw.ai.search.Scoring;
 import ie.gmit.sw.ai.search.models.Files;
-import net.sourceforge.jFuzzyLogic.FIS;
-import net.sourceforge.jFuzzyLogic.FunctionBlock;
-import net.sourceforge.jFuzzyLogic.rule.Variable;
 
 /**
 * Class that handles Fuzzy Heuristic implementation.
 * 
+* Loading the heuristic.fcl file with FIS.load() on every call was the slowest part of scoring a page, so the
+* function block is now compiled once into a FuzzyEngine and only recompiled when the file changes.
+* The engine is immutable, so each thread just keeps its own input and scratch arrays.
+* The index of each input is looked up once per engine rather than on every page, and a file without all four
+* inputs is never swapped in (see FuzzyEngineCache), so the indexes are always valid.
+* 
 * @see Heuristicable
 * @see Scoring
+* @see FuzzyEngine
+* @see FuzzyEngineCache
 * @author Matthew Sloyan
 */
 public class FuzzyHeuristic implements Heuristicable{
 	
+	private static final String FUNCTION_BLOCK = "scores";
+	private static final String[] INPUTS = {"meta", "title", "headings", "body"};
+	
+	// Input indexes for the engine they were looked up in.
+	private static volatile Inputs current;
+	
+	// Per thread working arrays, so evaluating doesn't allocate.
+	private static final ThreadLocal<double[]> inputs = ThreadLocal.withInitial(() -> new double[4]);
+	private static final ThreadLocal<double[]> scratch = ThreadLocal.withInitial(() -> new double[0]);
+	
 	/**
 	* Using the heuristic.fcl file get the fuzzy value for the parameters passed in
 	* (Meta, title, heading and body score) and return result to Scoring.
@@ -26,30 +43,40 @@ public class FuzzyHeuristic implements Heuristicable{
 	public int getHeuristicScore(int meta, int title, int headings, int body) {
 		String fileName = Files.getInstance().getFileNames().get(1);
 		
-		// Load from 'FCL' file
-		FIS fis = FIS.load(fileName, true);
+		// Get compiled 'FCL' file
+		FuzzyEngine engine = FuzzyEngineCache.getEngine(fileName, FUNCTION_BLOCK, INPUTS);
 
 		// Error while loading?
-		if (fis == null) {
-			System.err.println("Can't load file: '" + fileName + "'");
+		if (engine == null) {
+			return 0;
 		}
 		
-		FunctionBlock fb = fis.getFunctionBlock("scores");
+		double[] in = inputs.get();
+		if (in.length < engine.getInputCount()) {
+			in = new double[engine.getInputCount()];
+			inputs.set(in);
+		}
+		double[] work = scratch.get();
+		if (work.length < engine.getScratchSize()) {
+			work = engine.newScratch();
+			scratch.set(work);
+		}
 
+		// Look up the input indexes again only if the file has been reloaded.
+		Inputs resolved = current;
+		if (resolved == null || resolved.engine != engine) {
+			resolved = new Inputs(engine, engine.getInputIndexes(INPUTS));
+			current = resolved;
+		}
+		
 		// Set inputs
-		fis.setVariable("meta", meta);
-		fis.setVariable("title", title);
-		fis.setVariable("headings", headings);
-		fis.setVariable("body", body);
+		in[resolved.indexes[0]] = meta;
+		in[resolved.indexes[1]] = title;
+		in[resolved.indexes[2]] = headings;
+		in[resolved.indexes[3]] = body;
 
-		// Evaluate
-		fis.evaluate();
-		
-		// Show output variable's chart
-        Variable fuzzyScore = fb.getVariable("score");
-        
-        // Get and round final result.
-        int score = (int) Math.round(fuzzyScore.getLatestDefuzzifiedValue());
+		// Evaluate, get and round final result.
+        int score = (int) Math.round(engine.evaluate(in, work));
         
         // Return number that can be used for Encog too without checks.
         if (score >= 50) {
@@ -66,6 +93,27 @@ public class FuzzyHeuristic implements Heuristicable{
         }
 	}
 	
+	/**
+	* Version of heuristic.fcl currently compiled in the FuzzyEngineCache.
+	* 
+	* @see FuzzyEngineCache
+	*/
+	public long getModelVersion() {
+		FuzzyEngine engine = FuzzyEngineCache.getEngine(Files.getInstance().getFileNames().get(1), FUNCTION_BLOCK, INPUTS);
+		return engine == null ? 0 : engine.getVersion();
+	}
+	
+	// An engine and the index of each of INPUTS in it.
+	private static class Inputs {
+		private final FuzzyEngine engine;
+		private final int[] indexes;
+		
+		private Inputs(FuzzyEngine engine, int[] indexes) {
+			this.engine = engine;
+			this.indexes = indexes;
+		}
+	}
+	
 	// Testing
 //	public static void main(String[] args) {
 //		new FuzzyHeuristic().getHeuristicScore(100, 50, 100, 100);
@@ -0,0 +1,180 @@
+package ie.gmit.sw.ai.search.heuristics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+* Bounded, concurrent memo cache of heuristic scores.
+*
+* The heuristic inputs are small weighted counts (multiples of the weights in Scoring), so the same
+* (meta, title, headings, body) values come up again and again across pages and requests. Caching the score for each
+* tuple means repeated tuples skip the fuzzy engine or neural network entirely.
+*
+* Each entry is packed into a single long, so the table is just an AtomicLongArray and lookups never lock or allocate:
+*
+*   bits  0-51  the four inputs, 13 bits each (values above MAX_VALUE aren't cached)
+*   bits 52-53  heuristic (1 = Fuzzy, 2 = Encog, 3 = Custom NN)
+*   bits 54-58  model version (low bits, see below)
+*   bits 59-60  score + 1 (0 means the slot is empty)
+*   bit  61     referenced bit used for CLOCK eviction
+*
+* The table is split into buckets of WAYS slots. A new entry goes in an empty slot of its bucket, otherwise the first
+* slot whose referenced bit is clear, clearing the bits it passes over (CLOCK / second chance), so recently hit entries stay.
+*
+* When a heuristic's model version changes the whole table is cleared, as it happens rarely (a retrained model or an
+* edited .fcl file). The version bits in each entry cover the short window where another thread may still be inserting
+* a score from the old model.
+*
+* I have implemented a Singleton design pattern for this so every request shares the same cache.
+*
+* @see CachedHeuristic
+* @author Matthew Sloyan
+*/
+public class HeuristicCache {
+
+	public static final int MAX_VALUE = (1 << 13) - 1;
+
+	private static final int CAPACITY = 1 << 16; // 512KB
+	private static final int WAYS = 4;
+
+	private static final long KEY_MASK = (1L << 59) - 1; // Inputs, heuristic and version.
+	private static final int SCORE_SHIFT = 59;
+	private static final long REFERENCED = 1L << 61;
+
+	// Singleton design pattern.
+	private static HeuristicCache instance = new HeuristicCache();
+
+	private final AtomicLongArray table = new AtomicLongArray(CAPACITY);
+	private final AtomicLongArray versions = new AtomicLongArray(4); // Last model version seen for each heuristic.
+
+	// Metrics
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	private HeuristicCache() {}
+
+	public static HeuristicCache getInstance() {
+		return instance;
+	}
+
+	/**
+	* Packs a tuple into a key.
+	*
+	* @return key, or -1 if a value is too big to be cached.
+	*/
+	public long key(int heuristic, long version, int meta, int title, int headings, int body) {
+		if ((meta | title | headings | body) < 0 || meta > MAX_VALUE || title > MAX_VALUE || headings > MAX_VALUE || body > MAX_VALUE) {
+			return -1;
+		}
+		return meta | (long) title << 13 | (long) headings << 26 | (long) body << 39
+				| (long) heuristic << 52 | (version & 0x1F) << 54;
+	}
+
+	/**
+	* Gets the cached score for a key.
+	*
+	* @return score or -1 if not cached.
+	*/
+	public int get(long key) {
+		int bucket = bucket(key);
+
+		for (int i = bucket; i < bucket + WAYS; i++) {
+			long entry = table.get(i);
+			if ((entry & KEY_MASK) == key && entry != 0) {
+				// Mark as recently used, only writing if it isn't already to avoid needless cache line traffic.
+				if ((entry & REFERENCED) == 0) {
+					table.compareAndSet(i, entry, entry | REFERENCED);
+				}
+				hits.increment();
+				return (int) ((entry >>> SCORE_SHIFT) & 0x3) - 1;
+			}
+		}
+
+		misses.increment();
+		return -1;
+	}
+
+	/**
+	* Adds a score to the cache. If another thread changes the slot at the same time the score is just dropped,
+	* it will be added again next time it's missed.
+	*/
+	public void put(long key, int score) {
+		long entry = key | (long) (score + 1) << SCORE_SHIFT;
+		int bucket = bucket(key);
+
+		// Empty slot, or already added by another thread.
+		for (int i = bucket; i < bucket + WAYS; i++) {
+			long current = table.get(i);
+			if (current == 0) {
+				if (table.compareAndSet(i, 0, entry)) {
+					return;
+				}
+			}
+			else if ((current & KEY_MASK) == key) {
+				return;
+			}
+		}
+
+		// CLOCK: give referenced entries a second chance, evict the first one that isn't.
+		for (int pass = 0; pass < 2; pass++) {
+			for (int i = bucket; i < bucket + WAYS; i++) {
+				long current = table.get(i);
+				if ((current & REFERENCED) == 0) {
+					if (table.compareAndSet(i, current, entry)) {
+						evictions.increment();
+					}
+					return;
+				}
+				table.compareAndSet(i, current, current & ~REFERENCED);
+			}
+		}
+	}
+
+	/**
+	* Clears the cache if a heuristic is now using a different model version than last time.
+	*/
+	public void checkVersion(int heuristic, long version) {
+		if (versions.get(heuristic) != version) {
+			synchronized (versions) {
+				if (versions.get(heuristic) != version) {
+					for (int i = 0; i < CAPACITY; i++) {
+						table.set(i, 0);
+					}
+					versions.set(heuristic, version);
+				}
+			}
+		}
+	}
+
+	// Mixes the key bits (from SplitMix64) and picks the first slot of a bucket.
+	private int bucket(long key) {
+		long h = key;
+		h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+		h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+		h = h ^ (h >>> 31);
+		return (int) (h & (CAPACITY / WAYS - 1)) * WAYS;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public double getHitRate() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	public String toString() {
+		return String.format("hits %d, misses %d, evictions %d, hit rate %.1f%%", getHits(), getMisses(), getEvictions(), getHitRate() * 100);
+	}
+}
@@ -5,8 +5,31 @@ package ie.gmit.sw.ai.search.heuristics;
 * More could be added easily.
 */
 public interface Heuristicable {
+	
+	// Number of values per page in a batch (meta, title, headings, body).
+	static final int FEATURES = 4;
+	
 	public int getHeuristicScore(int meta, int title, int headings, int body);
 	
+	/**
+	* Scores a batch of pages in one call. Page i's meta, title, headings and body scores are at
+	* features[i * FEATURES] onwards, and its score is written to scores[i].
+	* By default each page is scored on its own, the neural networks override this to do the whole batch in one pass.
+	*/
+	default void getHeuristicScores(int[] features, int count, int[] scores) {
+		for (int i = 0, f = 0; i < count; i++, f += FEATURES) {
+			scores[i] = getHeuristicScore(features[f], features[f + 1], features[f + 2], features[f + 3]);
+		}
+	}
+	
+	/**
+	* Version of the model or rule file the heuristic is currently using. This changes whenever the file
+	* is reloaded, so cached scores from an older model aren't reused.
+	*/
+	default long getModelVersion() {
+		return 0;
+	}
+	
 	default void trainNeuralNetwork() {
 	}
 }
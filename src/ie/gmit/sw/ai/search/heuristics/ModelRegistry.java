@@ -0,0 +1,252 @@
+package ie.gmit.sw.ai.search.heuristics;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.encog.neural.networks.BasicNetwork;
+import org.encog.persist.EncogDirectoryPersistence;
+
+import ie.gmit.sw.ai.nn.NeuralNetwork;
+import ie.gmit.sw.ai.search.models.Files;
+
+/**
+* Registry that holds the trained models used by the heuristics (model.eg for Encog and model.ser for the Custom NN).
+*
+* Previously each call to getHeuristicScore() read and deserialized the model from disk, which meant disk I/O and
+* reflection for every page scored. Now each model is loaded once (at servlet init, or on first use) and kept in memory.
+*
+* The Custom NN is shared by every thread, as NeuralNetwork.process(Context) only reads the weights.
+* The Encog network can't be shared as BasicNetwork.compute() writes into arrays held by the network, so each thread
+* is handed its own copy of the current version through a ThreadLocal, which is only made the first time that thread uses it.
+*
+* The model files are checked for changes at most once every RELOAD_CHECK_INTERVAL ms. If a retrained model appears
+* it's loaded by the first call that notices and swapped in with a single map write, so searches already running
+* finish on the old model and new calls use the new one.
+*
+* I have implemented a Singleton design pattern for this as with Files, as the models are the same for every user.
+*
+* @see EncogHeuristic
+* @see CustomAIHeuristic
+* @see Files
+* @author Matthew Sloyan
+*/
+public class ModelRegistry {
+
+	private static final long RELOAD_CHECK_INTERVAL = 1000;
+
+	// Indexes of the models in Files.
+	private static final int ENCOG_INDEX = 2;
+	private static final int CUSTOM_NN_INDEX = 3;
+
+	// Singleton design pattern.
+	private static ModelRegistry instance = new ModelRegistry();
+
+	private ConcurrentMap<String, Model<?>> models = new ConcurrentHashMap<>();
+
+	// private constructor, so no other class can create an instance.
+	private ModelRegistry() {}
+
+	public static ModelRegistry getInstance() {
+		return instance;
+	}
+
+	/**
+	* Loads every model listed in Files, so the first search doesn't pay for it.
+	* Called from ServiceHandler.init() once the file paths are set.
+	*/
+	public void init() {
+		getEncogNetwork();
+		getNeuralNetwork();
+	}
+
+	/**
+	* Gets this thread's copy of the current Encog network.
+	*
+	* @return network or null if it couldn't be loaded.
+	*/
+	public BasicNetwork getEncogNetwork() {
+		Model<BasicNetwork> model = get(Files.getInstance().getFileNames().get(ENCOG_INDEX), ENCOG_LOADER);
+		return model == null ? null : model.instances.get();
+	}
+
+	/**
+	* Gets the current Custom neural network, which is shared by all threads.
+	*
+	* @return network or null if it couldn't be loaded.
+	*/
+	public NeuralNetwork getNeuralNetwork() {
+		Model<NeuralNetwork> model = get(Files.getInstance().getFileNames().get(CUSTOM_NN_INDEX), CUSTOM_NN_LOADER);
+		return model == null ? null : model.instances.get();
+	}
+
+	/**
+	* Gets the version of the current Encog network, checking for a new model file the same way getEncogNetwork() does.
+	*
+	* @return version or 0 if it couldn't be loaded.
+	*/
+	public long getEncogVersion() {
+		Model<BasicNetwork> model = get(Files.getInstance().getFileNames().get(ENCOG_INDEX), ENCOG_LOADER);
+		return model == null ? 0 : model.version;
+	}
+
+	/**
+	* Gets the version of the current Custom neural network, checking for a new model file the same way getNeuralNetwork() does.
+	*
+	* @return version or 0 if it couldn't be loaded.
+	*/
+	public long getNeuralNetworkVersion() {
+		Model<NeuralNetwork> model = get(Files.getInstance().getFileNames().get(CUSTOM_NN_INDEX), CUSTOM_NN_LOADER);
+		return model == null ? 0 : model.version;
+	}
+
+	/**
+	* Gets a snapshot of the currently loaded models, used to display version and load time.
+	*
+	* @return list of loaded models.
+	*/
+	public List<Model<?>> getModels() {
+		return new ArrayList<>(models.values());
+	}
+
+	/**
+	* Gets the currently loaded version of a model, or 0 if it isn't loaded.
+	*/
+	public long getVersion(String fileName) {
+		Model<?> model = models.get(fileName);
+		return model == null ? 0 : model.getVersion();
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> Model<T> get(String fileName, Loader<T> loader) {
+		Model<T> model = (Model<T>) models.get(fileName);
+
+		if (model == null || System.currentTimeMillis() >= model.nextCheck) {
+			model = reloadIfChanged(fileName, loader);
+		}
+
+		return model;
+	}
+
+	/**
+	* Loads a model if it has never been loaded or the file has changed since.
+	* Synchronized so only one thread loads a new version, readers never wait on this.
+	*/
+	@SuppressWarnings("unchecked")
+	private synchronized <T> Model<T> reloadIfChanged(String fileName, Loader<T> loader) {
+		Model<T> current = (Model<T>) models.get(fileName);
+		long now = System.currentTimeMillis();
+
+		// Another thread may have checked while this one was waiting.
+		if (current != null && now < current.nextCheck) {
+			return current;
+		}
+
+		File file = new File(fileName);
+		if (current != null && file.lastModified() == current.lastModified && file.length() == current.length) {
+			current.nextCheck = now + RELOAD_CHECK_INTERVAL;
+			return current;
+		}
+
+		try {
+			Model<T> model = new Model<>(fileName, file, loader, current == null ? 1 : current.version + 1);
+			model.nextCheck = now + RELOAD_CHECK_INTERVAL;
+			models.put(fileName, model);
+
+			System.out.println("[INFO] Loaded " + model);
+			return model;
+		} catch (Exception e) {
+			System.err.println("Can't load model: '" + fileName + "' " + e.getMessage());
+
+			// Keep using the last good version, or try again next call.
+			if (current != null) {
+				current.nextCheck = now + RELOAD_CHECK_INTERVAL;
+			}
+			return current;
+		}
+	}
+
+	/**
+	* One loaded version of a model file.
+	*/
+	public static class Model<T> {
+		private final String fileName;
+		private final long version;
+		private final long lastModified;
+		private final long length;
+		private final long loadTime;
+		private final ThreadLocal<T> instances;
+		private volatile long nextCheck;
+
+		private Model(String fileName, File file, Loader<T> loader, long version) throws Exception {
+			long start = System.nanoTime();
+
+			this.fileName = fileName;
+			this.version = version;
+			this.lastModified = file.lastModified();
+			this.length = file.length();
+
+			byte[] bytes = java.nio.file.Files.readAllBytes(file.toPath());
+			T prototype = loader.load(file, bytes);
+			this.instances = ThreadLocal.withInitial(() -> loader.copy(prototype, bytes));
+
+			this.loadTime = (System.nanoTime() - start) / 1000000;
+		}
+
+		public String getFileName() {
+			return fileName;
+		}
+
+		public long getVersion() {
+			return version;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		// Time taken to load the model in ms.
+		public long getLoadTime() {
+			return loadTime;
+		}
+
+		public String toString() {
+			return new File(fileName).getName() + " v" + version + " (loaded in " + loadTime + " ms)";
+		}
+	}
+
+	/**
+	* Loads a model file, and makes a copy of it for each thread.
+	*/
+	private interface Loader<T> {
+		T load(File file, byte[] bytes) throws Exception;
+		T copy(T prototype, byte[] bytes);
+	}
+
+	private static final Loader<BasicNetwork> ENCOG_LOADER = new Loader<BasicNetwork>() {
+		public BasicNetwork load(File file, byte[] bytes) {
+			return (BasicNetwork) EncogDirectoryPersistence.loadObject(new ByteArrayInputStream(bytes));
+		}
+
+		public BasicNetwork copy(BasicNetwork prototype, byte[] bytes) {
+			return (BasicNetwork) prototype.clone();
+		}
+	};
+
+	private static final Loader<NeuralNetwork> CUSTOM_NN_LOADER = new Loader<NeuralNetwork>() {
+		public NeuralNetwork load(File file, byte[] bytes) throws Exception {
+			try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+				return (NeuralNetwork) in.readObject();
+			}
+		}
+
+		// Inference is stateless, so every thread can use the same instance.
+		public NeuralNetwork copy(NeuralNetwork prototype, byte[] bytes) {
+			return prototype;
+		}
+	};
+}
@@ -18,6 +18,9 @@ import ie.gmit.sw.ai.search.heuristics.FuzzyHeuristic;
 * index 0 - ignorewords.txt
 * index 1 - heuristic.fcl
 * index 2 - model.eg
+* index 3 - model.ser
+* index 4 - results (ResultStore directory)
+* index 5 - pages (PageCache directory)
 *
 * I have implemented a Singleton design pattern for this so it can be easily accessed by any class that requires it.
 * Also as these paths are the same for anyone using the application it made sense to have one instance.
@@ -9,6 +9,13 @@ package ie.gmit.sw.ai.search.models;
 * scoring = Use of frequency of Levenshtein distance.
 * goal = Search goal type (Max nodes or Max words)
 * wordCloudNum = Number of words to display in wordcloud
+* counting = Type of word counting (Exact or Approximate)
+* placement = How words are placed in the word cloud (Bounding box or Glyph mask)
+* output = How the word cloud is sent (PNG or SVG)
+* threads = Threads the searches are run on (Platform or Virtual)
+* 
+* The last four default to 1 and are set with their setters, so there's one constructor however many options are added.
+* They should be set before the Options are passed to a search.
 * 
 * @author Matthew Sloyan
 */
@@ -18,6 +25,10 @@ public class Options  {
 	private int scoring;
 	private int goal;
 	private int wordCloudNum;
+	private int counting = 1;
+	private int placement = 1;
+	private int output = 1;
+	private int threads = 1;
 	
 	public Options(int search, int heuristic, int scoring, int goal, int wordCloudNum) {
 		super();
@@ -47,4 +58,36 @@ public class Options  {
 	public int getWordCloudNum() {
 		return wordCloudNum;
 	}
+
+	public int getCounting() {
+		return counting;
+	}
+
+	public void setCounting(int counting) {
+		this.counting = counting;
+	}
+
+	public int getPlacement() {
+		return placement;
+	}
+
+	public void setPlacement(int placement) {
+		this.placement = placement;
+	}
+
+	public int getOutput() {
+		return output;
+	}
+
+	public void setOutput(int output) {
+		this.output = output;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
 }
@@ -0,0 +1,71 @@
+package ie.gmit.sw.ai.search.models;
+
+import org.jsoup.nodes.Document;
+
+/**
+* Class that holds a webpage once it's been through the PagePipeline: the document, and its WebPage for each search term.
+*
+* A page is relevant if it scored high or medium (>= 1) for any search term, and relevant pages have already been indexed.
+* The node for the queues uses the highest score of any term, so if the last search term scored badly the page isn't
+* put at the back of the queue.
+*
+* @author Matthew Sloyan
+*/
+public class ScoredPage {
+	private String url;
+	private Document doc;
+	private WebPage[] pages;
+	private int score;
+	private boolean relevant;
+
+	public ScoredPage(String url, Document doc, WebPage[] pages) {
+		super();
+		this.url = url;
+		this.doc = doc;
+		this.pages = pages;
+
+		for (WebPage page : pages) {
+			if (page.getScore() >= 1) {
+				relevant = true;
+				score = Math.max(score, page.getScore());
+			}
+		}
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public Document getDoc() {
+		return doc;
+	}
+
+	/**
+	* WebPage for each search term, in the same order as the terms.
+	*/
+	public WebPage[] getPages() {
+		return pages;
+	}
+
+	/**
+	* WebPage that's indexed, the last search term's.
+	*/
+	public WebPage getPage() {
+		return pages[pages.length - 1];
+	}
+
+	public int getScore() {
+		return score;
+	}
+
+	public boolean isRelevant() {
+		return relevant;
+	}
+
+	/**
+	* Node for the search queues, or null if the page isn't relevant.
+	*/
+	public DocumentNode getNode() {
+		return relevant ? new DocumentNode(doc, score) : null;
+	}
+}
@@ -0,0 +1,284 @@
+package ie.gmit.sw.ai.search.pipeline;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jsoup.nodes.Document;
+
+import ie.gmit.sw.ai.search.Scoring;
+import ie.gmit.sw.ai.search.database.ResultsDatabaseProxy;
+import ie.gmit.sw.ai.search.fetch.PageFetcher;
+import ie.gmit.sw.ai.search.models.Options;
+import ie.gmit.sw.ai.search.models.ScoredPage;
+import ie.gmit.sw.ai.search.models.WebPage;
+import ie.gmit.sw.ai.search.searches.BeamSearch;
+import ie.gmit.sw.ai.search.searches.BestFirstSearch;
+import ie.gmit.sw.ai.search.searches.RecursiveDepthFirstSearch;
+
+/**
+* Fetches, scores and indexes the pages found by the searches, in four stages each with its own threads and queue.
+*
+* Previously the search thread did everything for a link in turn: download it, extract the text, score it with the
+* heuristic and index it. So the threads waiting on the network were the same ones doing the CPU work, and while a
+* thread was running the neural network it wasn't downloading anything. Instead a search submits its links here and
+* gets a ScoredPage back for each once it has been through every stage:
+*
+* - fetch: downloads and parses the page with the PageFetcher. Each thread starts a batch of downloads and waits for
+*   them, so a few threads keep up to PageFetcher.MAX_IN_FLIGHT going.
+* - parse: extracts the text of each section and the frequency of every search term (Scoring.extract()), one thread per core.
+* - score: runs the heuristic for a batch of pages at once, from any request using the same heuristic.
+* - index: adds the words of relevant pages to the request's database.
+*
+* Every queue is bounded, so when a stage falls behind the stage before it waits, back to the searches, rather than
+* pages piling up in memory. The searches still decide what to do with each page, so any of them can drive it.
+*
+* I have implemented a Singleton design pattern for this so every request shares the same stages.
+*
+* @see Stage
+* @see ScoredPage
+* @see BestFirstSearch
+* @see BeamSearch
+* @see RecursiveDepthFirstSearch
+* @author Matthew Sloyan
+*/
+public class PagePipeline {
+
+	private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+	// Stage sizes.
+	private static final int FETCH_THREADS = 16;
+	private static final int FETCH_BATCH = PageFetcher.MAX_IN_FLIGHT / FETCH_THREADS;
+	private static final int SCORE_BATCH = 64;
+	private static final int QUEUE_SIZE = 1024;
+
+	// Longest a search waits for a page. Well over the PageFetcher's 30s request timeout, so it's only reached if a page is lost.
+	private static final long PAGE_TIMEOUT = 2 * 60 * 1000;
+
+	// Singleton design pattern.
+	private static PagePipeline instance = new PagePipeline();
+
+	private final Stage<Job> index = new Stage<>("index", CORES, QUEUE_SIZE, 1, this::index, this::fail);
+	private final Stage<Job> score = new Stage<>("score", CORES, QUEUE_SIZE, SCORE_BATCH, this::score, this::fail);
+	private final Stage<Job> parse = new Stage<>("parse", CORES, QUEUE_SIZE, 1, this::parse, this::fail);
+	private final Stage<Job> fetch = new Stage<>("fetch", FETCH_THREADS, QUEUE_SIZE, FETCH_BATCH, this::fetch, this::fail);
+
+	// private constructor, so no other class can create an instance.
+	private PagePipeline() {}
+
+	public static PagePipeline getInstance() {
+		return instance;
+	}
+
+	/**
+	* Sends a page through the pipeline, waiting if the fetch queue is full.
+	*
+	* @param url page to fetch.
+	* @param searchTerms lower case search terms.
+	* @param options user options.
+	* @param db the request's database, relevant pages are indexed into it.
+	* @return the scored page, or an IOException if it couldn't be fetched.
+	*/
+	public CompletableFuture<ScoredPage> submit(String url, List<String> searchTerms, Options options, ResultsDatabaseProxy db) {
+		Job job = new Job(url, searchTerms, options, db);
+		job.stage = fetch;
+		try {
+			fetch.put(job);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			job.result.completeExceptionally(new InterruptedIOException());
+		}
+		return job.result;
+	}
+
+	/**
+	* Sends every page through the pipeline.
+	*
+	* @return the scored pages in the same order as the urls.
+	*/
+	public List<CompletableFuture<ScoredPage>> submitAll(List<String> urls, List<String> searchTerms, Options options, ResultsDatabaseProxy db) {
+		List<CompletableFuture<ScoredPage>> pages = new ArrayList<>(urls.size());
+		for (String url : urls) {
+			pages.add(submit(url, searchTerms, options, db));
+		}
+		return pages;
+	}
+
+	/**
+	* Waits for a page started with submit(), at most PAGE_TIMEOUT.
+	*
+	* @throws IOException if the page couldn't be fetched or scored, or took too long.
+	*/
+	public static ScoredPage get(CompletableFuture<ScoredPage> page) throws IOException {
+		try {
+			return page.get(PAGE_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			page.completeExceptionally(e);
+			throw new IOException("Timed out waiting for page", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	// == Stages ==
+
+	private void fetch(List<Job> jobs) throws InterruptedException {
+		List<String> urls = new ArrayList<>(jobs.size());
+		for (Job job : jobs) {
+			urls.add(job.url);
+		}
+
+		// Start every download, then take each page as it's ready.
+		List<CompletableFuture<Document>> downloads = PageFetcher.getInstance().fetchAll(urls);
+		for (int i = 0; i < jobs.size(); i++) {
+			Job job = jobs.get(i);
+			try {
+				job.doc = PageFetcher.get(downloads.get(i));
+			} catch (IOException | RuntimeException e) {
+				job.result.completeExceptionally(e instanceof IOException ? e : new IOException(e));
+				continue;
+			}
+			forward(parse, job);
+		}
+	}
+
+	private void parse(List<Job> jobs) throws InterruptedException {
+		for (Job job : jobs) {
+			try {
+				job.scoring = new Scoring(job.doc, job.searchTerms, job.options);
+				job.scoring.extract();
+			} catch (RuntimeException e) {
+				job.result.completeExceptionally(new IOException(e));
+				continue;
+			}
+			forward(score, job);
+		}
+	}
+
+	private void score(List<Job> jobs) throws InterruptedException {
+		// Pages using the same heuristic are scored in one call.
+		Map<Integer, List<Job>> heuristics = new LinkedHashMap<>();
+		for (Job job : jobs) {
+			heuristics.computeIfAbsent(job.options.getHeuristic(), h -> new ArrayList<>()).add(job);
+		}
+
+		for (List<Job> batch : heuristics.values()) {
+			List<Scoring> pages = new ArrayList<>(batch.size());
+			for (Job job : batch) {
+				pages.add(job.scoring);
+			}
+
+			WebPage[] scored;
+			try {
+				scored = Scoring.getHeuristicScores(pages, batch.get(0).options);
+			} catch (RuntimeException e) {
+				for (Job job : batch) {
+					job.result.completeExceptionally(new IOException(e));
+				}
+				continue;
+			}
+
+			// Page i term t is at i * terms + t, and pages can have different numbers of terms.
+			int row = 0;
+			for (Job job : batch) {
+				job.pages = Arrays.copyOfRange(scored, row, row + job.searchTerms.size());
+				row += job.searchTerms.size();
+				forward(index, job);
+			}
+		}
+	}
+
+	private void index(List<Job> jobs) {
+		for (Job job : jobs) {
+			try {
+				ScoredPage scored = new ScoredPage(job.url, job.doc, job.pages);
+
+				// Only index once if score is high enough, using the last search term's page as the searches did.
+				if (scored.isRelevant()) {
+					WebPage page = scored.getPage();
+					job.db.index(job.searchTerms, page.getMetas(), page.getTitle(), page.getHeadings(), page.getBody());
+				}
+				job.result.complete(scored);
+			} catch (RuntimeException e) {
+				job.result.completeExceptionally(new IOException(e));
+			}
+		}
+	}
+
+	// Hands a job to the next stage, which is then responsible for it.
+	private void forward(Stage<Job> next, Job job) throws InterruptedException {
+		job.stage = next;
+		try {
+			next.put(job);
+		} catch (InterruptedException e) {
+			job.result.completeExceptionally(new InterruptedIOException());
+			throw e;
+		}
+	}
+
+	/**
+	* Fails a job whose stage threw, unless it has already been handed to the next stage.
+	*/
+	private void fail(Stage<Job> stage, Job job, Exception e) {
+		if (job.stage == stage) {
+			job.result.completeExceptionally(e instanceof IOException ? e : new IOException(e));
+		}
+	}
+
+	// == Metrics ==
+
+	/**
+	* Gets the stages in order, for their queue depth and latency.
+	*/
+	public List<Stage<?>> getStages() {
+		return Arrays.asList(fetch, parse, score, index);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Stage<?> stage : getStages()) {
+			if (sb.length() > 0) {
+				sb.append("; ");
+			}
+			sb.append(stage);
+		}
+		return sb.toString();
+	}
+
+	// A page on its way through the stages.
+	private static class Job {
+		private final String url;
+		private final List<String> searchTerms;
+		private final Options options;
+		private final ResultsDatabaseProxy db;
+		private final CompletableFuture<ScoredPage> result = new CompletableFuture<>();
+
+		// Stage the job is in, and what each stage has set in turn.
+		private volatile Stage<Job> stage;
+		private Document doc;
+		private Scoring scoring;
+		private WebPage[] pages;
+
+		private Job(String url, List<String> searchTerms, Options options, ResultsDatabaseProxy db) {
+			this.url = url;
+			this.searchTerms = searchTerms;
+			this.options = options;
+			this.db = db;
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package ie.gmit.sw.ai.search.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+* One stage of the PagePipeline, with its own threads and a bounded queue of work.
+*
+* Each thread takes the next item from the queue, along with any others waiting up to the batch size, and hands them
+* to the stage's Handler. When the queue is full put() waits for room, so a stage that falls behind slows down the
+* stage (or search) feeding it rather than letting work pile up in memory.
+*
+* If the Handler throws, every item in the batch is passed to the stage's Failure, so whoever is waiting on an item
+* is told rather than waiting forever.
+*
+* The queue depth, number of items being handled and the average time items spend in the stage (waiting and being
+* handled) are kept so they can be shown on the results page.
+*
+* @see PagePipeline
+* @author Matthew Sloyan
+*/
+public class Stage<T> {
+
+	/**
+	* Work done by a stage, for a batch of one or more items.
+	*/
+	public interface Handler<T> {
+		void handle(List<T> batch) throws InterruptedException;
+	}
+
+	/**
+	* Called for each item in a batch the Handler failed on.
+	*/
+	public interface Failure<T> {
+		void failed(Stage<T> stage, T item, Exception e);
+	}
+
+	private final String name;
+	private final int maxBatch;
+	private final Handler<T> handler;
+	private final Failure<T> failure;
+	private final BlockingQueue<Entry<T>> queue;
+
+	// Metrics
+	private final AtomicInteger busy = new AtomicInteger();
+	private final LongAdder done = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+
+	/**
+	* Creates the stage and starts its threads.
+	*
+	* @param name stage name, used for the threads and metrics.
+	* @param threads number of threads handling items.
+	* @param capacity most items waiting in the queue.
+	* @param maxBatch most items handled together by one thread.
+	* @param handler work done for each batch.
+	* @param failure called for each item in a batch the handler threw on.
+	*/
+	public Stage(String name, int threads, int capacity, int maxBatch, Handler<T> handler, Failure<T> failure) {
+		this.name = name;
+		this.maxBatch = maxBatch;
+		this.handler = handler;
+		this.failure = failure;
+		queue = new ArrayBlockingQueue<>(capacity);
+
+		// Daemon threads, so they don't keep the server running once it's stopped.
+		for (int i = 0; i < threads; i++) {
+			Thread t = new Thread(this::work, "pipeline-" + name);
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	/**
+	* Adds an item to the queue, waiting for room if it's full.
+	*/
+	public void put(T item) throws InterruptedException {
+		queue.put(new Entry<>(item, System.nanoTime()));
+	}
+
+	private void work() {
+		List<Entry<T>> entries = new ArrayList<>(maxBatch);
+		List<T> batch = new ArrayList<>(maxBatch);
+
+		while (true) {
+			try {
+				entries.add(queue.take());
+			} catch (InterruptedException e) {
+				return;
+			}
+			queue.drainTo(entries, maxBatch - 1);
+
+			for (Entry<T> entry : entries) {
+				batch.add(entry.item);
+			}
+			busy.addAndGet(entries.size());
+
+			try {
+				handler.handle(batch);
+			} catch (InterruptedException e) {
+				fail(batch, e);
+				return;
+			} catch (RuntimeException e) {
+				System.out.println("[INFO] Pipeline stage " + name + " failed: " + e);
+				fail(batch, e);
+			} finally {
+				long now = System.nanoTime();
+				for (Entry<T> entry : entries) {
+					totalNanos.add(now - entry.queued);
+				}
+				done.add(entries.size());
+				busy.addAndGet(-entries.size());
+				entries.clear();
+				batch.clear();
+			}
+		}
+	}
+
+	private void fail(List<T> batch, Exception e) {
+		for (T item : batch) {
+			try {
+				failure.failed(this, item, e);
+			} catch (RuntimeException e1) {
+				System.out.println("[INFO] Pipeline stage " + name + " couldn't fail an item: " + e1);
+			}
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	* Number of items waiting in the queue.
+	*/
+	public int getQueued() {
+		return queue.size();
+	}
+
+	/**
+	* Number of items being handled now.
+	*/
+	public int getBusy() {
+		return busy.get();
+	}
+
+	/**
+	* Number of items handled since the server started.
+	*/
+	public long getDone() {
+		return done.sum();
+	}
+
+	/**
+	* Average time from put() until an item has been handled, in milliseconds.
+	*/
+	public double getAverageLatency() {
+		long n = done.sum();
+		return n == 0 ? 0 : totalNanos.sum() / (double) n / 1_000_000;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s %d queued, %d busy, %d done, %.1fms avg", name, getQueued(), getBusy(), getDone(), getAverageLatency());
+	}
+
+	// An item and when it was added to the queue.
+	private static class Entry<T> {
+		private final T item;
+		private final long queued;
+
+		private Entry(T item, long queued) {
+			this.item = item;
+			this.queued = queued;
+		}
+	}
+}
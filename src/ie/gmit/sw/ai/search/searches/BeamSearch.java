@@ -7,7 +7,7 @@ import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
-import org.jsoup.Jsoup;
+import java.util.concurrent.CompletableFuture;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
@@ -17,7 +17,9 @@ import ie.gmit.sw.ai.search.Scoring;
 import ie.gmit.sw.ai.search.database.ResultsDatabaseProxy;
 import ie.gmit.sw.ai.search.models.DocumentNode;
 import ie.gmit.sw.ai.search.models.Options;
+import ie.gmit.sw.ai.search.models.ScoredPage;
 import ie.gmit.sw.ai.search.models.WebPage;
+import ie.gmit.sw.ai.search.pipeline.PagePipeline;
 
 /**
 * Beam Search implementation.
@@ -42,6 +44,7 @@ import ie.gmit.sw.ai.search.models.WebPage;
 * @see DocumentNode
 * @see Scoring
 * @see WebPage
+* @see PagePipeline
 * @author Matthew Sloyan
 */
 public class BeamSearch implements Runnable, Searchable{
@@ -80,42 +83,18 @@ public class BeamSearch implements Runnable, Searchable{
 	*/
 	public void run() {
 		try {
-			// Get the document from the duckduckgo search (url).
-			Document doc = Jsoup.connect(url).get();
-			DocumentNode dn = null;
-			WebPage page = null;
-			boolean relevantPage = false;
-			int higestScore = 0;
+			// Get the document from the duckduckgo search (url), scored for every search term and indexed if relevant
+			// by the pipeline. (SRP)
+			ScoredPage page = PagePipeline.get(PagePipeline.getInstance().submit(url, searchTerms, options, db));
 			
 			// Add url to closed set, so it won't be searched again.
 			closed.add(url);
 			
-			// Handle multiple search words.
-			// Loop through the search terms and score each page for each search term. I have implemented this so multiples 
-			// of the same nodes aren't added to the queue, or the same words indexed twice.
-			// If there is just one search term this is linear O(1).
-			for (String term : searchTerms) {
-				page = new Scoring(doc, term, options).getHeuristicScore(); // score page
-				int pageScore = page.getScore();
-				
-				// Check if page is worth adding to queue or indexing.
-				if (pageScore >= 1) {
-					relevantPage = true;
-					
-					// Get highest scoring page (For multiple search terms).
-					// So that the highest scoring search word node is added to the queue.
-					// This is so if the last search term scored badly it would be at the back of the queue.
-					if (pageScore >= higestScore) {
-						higestScore = page.getScore();
-						dn = new DocumentNode(doc, pageScore);
-					}
-				}
-			}
-			
 			// Only add once if score is high enough.
-			if (relevantPage) {
-				queue.addLast(dn);
-				db.index(searchTerms, page.getMetas(), page.getTitle(), page.getHeadings(), page.getBody());
+			// The node has the highest score of any search term, so if the last search term scored badly
+			// it isn't at the back of the queue.
+			if (page.isRelevant()) {
+				queue.addLast(page.getNode());
 			}
 		} catch (IOException e) {}
 		
@@ -142,51 +121,29 @@ public class BeamSearch implements Runnable, Searchable{
 			Elements edges = doc.select("a[href]"); // a with href links
 			ArrayList<DocumentNode> children = new ArrayList<>();
 			
+			// Every child is scored before sorting, sent through the pipeline together at most CHILD_BATCH at a time.
+			List<String> links = new ArrayList<>();
+			
 			for (Element e : edges) {
 				String link = e.absUrl("href");
 				
 				// Check if goal conditions are met, or if link has already been searched.
 				// Goal condition check is implemented in interface.
 				if (link != null && !closed.contains(link) && checkForGoal(options.getGoal(), db.checkSize(), closed.size())) {
-
-					DocumentNode dn = null;
-					WebPage page = null;
-					boolean relevantPage = false;
-					int higestScore = 0;
 					
 					// Add url to closed set, so it won't be searched again.
 					closed.add(link);
 					
-					try {
-						Document child = Jsoup.connect(link).get();
-						
-						for (String term : searchTerms) {
-							// Search child and if score is high index and add children to arraylist to sort.
-							page = new Scoring(child, term, options).getHeuristicScore(); // score page
-							int pageScore = page.getScore();
-							//System.out.println(page.getScore());
-							
-							// Check if page is worth adding to queue or indexing.
-							if (pageScore >= 1) {
-								relevantPage = true;
-								
-								// Get highest scoring page (For multiple search terms).
-								// So that the highest scoring search word is added to the queue.
-								if (pageScore >= higestScore) {
-									higestScore = page.getScore();
-									dn = new DocumentNode(child, pageScore);
-								}
-							}
-						}
-					} catch (Exception e1) {}
+					links.add(link);
 					
-					// Only add once if score is high enough.
-					if (relevantPage) {
-						children.add(dn);
-						db.index(searchTerms, page.getMetas(), page.getTitle(), page.getHeadings(), page.getBody());
+					// Score this batch before going on, so the goal check sees the words it indexed.
+					if (links.size() == CHILD_BATCH) {
+						expand(links, children);
+						links.clear();
 					}
 				}
 			}
+			expand(links, children);
 			
 			// Get all children and sort by score.
 			try {
@@ -209,4 +166,21 @@ public class BeamSearch implements Runnable, Searchable{
 			} catch (Exception e1) {}
 		}
 	}
+	
+	/**
+	* Sends a batch of children through the pipeline at the same time, then takes each page as it's scored.
+	* The relevant pages have already been indexed, and are added to children to be sorted.
+	*/
+	private void expand(List<String> links, List<DocumentNode> children) {
+		for (CompletableFuture<ScoredPage> scored : PagePipeline.getInstance().submitAll(links, searchTerms, options, db)) {
+			try {
+				ScoredPage page = PagePipeline.get(scored);
+				
+				// Only add once if score is high enough.
+				if (page.isRelevant()) {
+					children.add(page.getNode());
+				}
+			} catch (IOException e) {}
+		}
+	}
 }
@@ -1,10 +1,11 @@
 package ie.gmit.sw.ai.search.searches;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
 import java.util.Set;
-import org.jsoup.Jsoup;
+import java.util.concurrent.CompletableFuture;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
@@ -14,7 +15,9 @@ import ie.gmit.sw.ai.search.Scoring;
 import ie.gmit.sw.ai.search.database.ResultsDatabaseProxy;
 import ie.gmit.sw.ai.search.models.DocumentNode;
 import ie.gmit.sw.ai.search.models.Options;
+import ie.gmit.sw.ai.search.models.ScoredPage;
 import ie.gmit.sw.ai.search.models.WebPage;
+import ie.gmit.sw.ai.search.pipeline.PagePipeline;
 
 /**
 * Best First Search implementation.
@@ -38,6 +41,7 @@ import ie.gmit.sw.ai.search.models.WebPage;
 * @see DocumentNode
 * @see Scoring
 * @see WebPage
+* @see PagePipeline
 * @author Matthew Sloyan
 */
 public class BestFirstSearch implements Runnable, Searchable{
@@ -76,44 +80,18 @@ public class BestFirstSearch implements Runnable, Searchable{
 	*/
 	public void run() {
 		try {
-			// Get the document from the duckduckgo search (url).
-			Document doc = Jsoup.connect(url).get();
-			DocumentNode dn = null;
-			WebPage page = null;
-			boolean relevantPage = false;
-			int higestScore = 0;
+			// Get the document from the duckduckgo search (url), scored for every search term and indexed if relevant
+			// by the pipeline. (SRP)
+			ScoredPage page = PagePipeline.get(PagePipeline.getInstance().submit(url, searchTerms, options, db));
 			
 			// Add url to closed set, so it won't be searched again.
 			closed.add(url);
 			
-			// Handle multiple search words.
-			// Loop through the search terms and score each page for each search term. I have implemented this so multiples 
-			// of the same nodes aren't added to the queue, or the same words indexed twice.
-			// If there is just one search term this is linear O(1).
-			for (String term : searchTerms) {
-				
-				// Score each page, and return contents to pass to db if score is high or medium. (SRP)
-				page = new Scoring(doc, term, options).getHeuristicScore();
-				int pageScore = page.getScore();
-				
-				// Check if page is worth adding to queue or indexing.
-				if (pageScore >= 1) {
-					relevantPage = true;
-					
-					// Get highest scoring page (For multiple search terms).
-					// So that the highest scoring search word is added to the queue.
-					// This is so if the last search term scored badly it would be at the back of the queue.
-					if (pageScore >= higestScore) {
-						higestScore = page.getScore();
-						dn = new DocumentNode(doc, pageScore);
-					}
-				}
-			}
-			
 			// Only add once if score is high enough.
-			if (relevantPage) {
-				queue.offer(dn);
-				db.index(searchTerms, page.getMetas(), page.getTitle(), page.getHeadings(), page.getBody());
+			// The node has the highest score of any search term, so if the last search term scored badly
+			// it isn't at the back of the queue.
+			if (page.isRelevant()) {
+				queue.offer(page.getNode());
 			}
 		} catch (IOException e) {}
 		
@@ -137,6 +115,10 @@ public class BestFirstSearch implements Runnable, Searchable{
 			Document doc = node.getDoc();
 
 			Elements edges = doc.select("a[href]"); // a with href links
+			
+			// Children of this node to send through the pipeline together, at most CHILD_BATCH at a time.
+			List<String> links = new ArrayList<>();
+			
 			for (Element e : edges) {
 				
 				String link = e.absUrl("href");
@@ -144,45 +126,36 @@ public class BestFirstSearch implements Runnable, Searchable{
 				// Check if goal conditions are met, or if link has already been searched.
 				if (link != null && !closed.contains(link) && checkForGoal(options.getGoal(), db.checkSize(), closed.size())) {
 					
-					DocumentNode dn = null;
-					WebPage page = null;
-					boolean relevantPage = false;
-					int higestScore = 0;
-					
 					// Add url to closed set, so it won't be searched again.
 					closed.add(link);
 					
-					try {
-						Document child = Jsoup.connect(link).get();
-						
-						for (String term : searchTerms) {
-							page = new Scoring(child, term, options).getHeuristicScore();
-							int pageScore = page.getScore();
-							
-							//System.out.println(pageScore);
-							
-							// Check if page is worth adding to queue or indexing.
-							if (pageScore >= 1) {
-								relevantPage = true;
-								
-								// Get highest scoring page (For multiple search terms).
-								// So that the highest scoring search word is added to the queue.
-								if (pageScore >= higestScore) {
-									higestScore = page.getScore();
-									dn = new DocumentNode(child, pageScore);
-								}
-							}
-						}
-						
-						// Only add once if score is high enough.
-						if (relevantPage) {
-							queue.offer(dn);
-							db.index(searchTerms, page.getMetas(), page.getTitle(), page.getHeadings(), page.getBody());
-						}
-
-					} catch (Exception e2) {}
+					links.add(link);
+					
+					// Score this batch before going on, so the goal check sees the words it indexed.
+					if (links.size() == CHILD_BATCH) {
+						expand(links);
+						links.clear();
+					}
 				}
 			}
+			expand(links);
+		}
+	}
+	
+	/**
+	* Sends a batch of children through the pipeline at the same time, then takes each page as it's scored
+	* and adds the relevant ones to the queue.
+	*/
+	private void expand(List<String> links) {
+		for (CompletableFuture<ScoredPage> scored : PagePipeline.getInstance().submitAll(links, searchTerms, options, db)) {
+			try {
+				ScoredPage page = PagePipeline.get(scored);
+				
+				// Only add once if score is high enough.
+				if (page.isRelevant()) {
+					queue.offer(page.getNode());
+				}
+			} catch (IOException e) {}
 		}
 	}
 }
@@ -3,7 +3,6 @@ package ie.gmit.sw.ai.search.searches;
 import java.io.IOException;
 import java.util.List;
 import java.util.Set;
-import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
@@ -13,7 +12,9 @@ import ie.gmit.sw.ai.search.Scoring;
 import ie.gmit.sw.ai.search.database.ResultsDatabaseProxy;
 import ie.gmit.sw.ai.search.models.DocumentNode;
 import ie.gmit.sw.ai.search.models.Options;
+import ie.gmit.sw.ai.search.models.ScoredPage;
 import ie.gmit.sw.ai.search.models.WebPage;
+import ie.gmit.sw.ai.search.pipeline.PagePipeline;
 
 /**
 * Recursive Depth First Search implementation (Fastest).
@@ -34,6 +35,7 @@ import ie.gmit.sw.ai.search.models.WebPage;
 * @see DocumentNode
 * @see Scoring
 * @see WebPage
+* @see PagePipeline
 * @author Matthew Sloyan
 */
 public class RecursiveDepthFirstSearch implements Runnable, Searchable{
@@ -68,32 +70,17 @@ public class RecursiveDepthFirstSearch implements Runnable, Searchable{
 	*/
 	public void run() {
 		try {
-			// Get the document from the duckduckgo search (url).
-			Document doc = Jsoup.connect(url).get();
-			WebPage page = null;
-			boolean relevantPage = false;
+			// Get the document from the duckduckgo search (url), scored for every search term and indexed if relevant
+			// by the pipeline.
+			ScoredPage page = PagePipeline.get(PagePipeline.getInstance().submit(url, searchTerms, options, db));
 			
 			// Add url to closed set, so it won't be searched again.
 			closed.add(url);
 			
-			// Handle multiple search words.
-			// Loop through the search terms and score each page for each search term. I have implemented this so multiples 
-			// of the same nodes aren't added to the queue, or the same words indexed twice.
-			// If there is just one search term this is linear O(1).
-			for (String term : searchTerms) {
-				page = new Scoring(doc, term, options).getHeuristicScore(); // score page
-				
-				// Check if page is worth adding to queue or indexing.
-				if (page.getScore() >= 1) {
-					relevantPage = true;
-				}
-			}
-			
-			// Only add once if score is high enough.
+			// Only search once if score is high enough.
 			// This is done here so that the same nodes are not searched twice. Also so the same words aren't indexed again.
-			if (relevantPage) {
-				db.index(searchTerms, page.getMetas(), page.getTitle(), page.getHeadings(), page.getBody());
-				search(doc);
+			if (page.isRelevant()) {
+				search(page.getDoc());
 			}
 		} catch (IOException e) {
 			
@@ -118,31 +105,21 @@ public class RecursiveDepthFirstSearch implements Runnable, Searchable{
 			// Check if goal conditions are met, or if link has already been searched.
 			// Goal condition check is implemented in interface.
 			if (link != null && !closed.contains(link) && checkForGoal(options.getGoal(), db.checkSize(), closed.size())) {
-				Document child = null;
-				WebPage page = null;
-				boolean relevantPage = false;
+				ScoredPage page = null;
 
 				// Add url to closed set, so it won't be searched again.
 				closed.add(link);
 				
 				try {
-					child = Jsoup.connect(link).get();
-				
-					for (String term : searchTerms) {
-						// Score page and get page data.
-						page = new Scoring(child, term, options).getHeuristicScore();
-						
-						if (page.getScore() >= 1) {
-							relevantPage = true;
-						}
-					}
+					// Score page and index it if it's relevant.
+					// Children can't be sent together here as each relevant child is searched before the next is downloaded.
+					page = PagePipeline.get(PagePipeline.getInstance().submit(link, searchTerms, options, db));
 				} catch (Exception e1) {}
 				
-				// Only add once if score is high enough.
+				// Only search once if score is high enough.
 				// This is done here so that the same nodes are not searched twice. Also so the same words aren't indexed again.
-				if (relevantPage) {
-					db.index(searchTerms, page.getMetas(), page.getTitle(), page.getHeadings(), page.getBody());
-					search(child);
+				if (page != null && page.isRelevant()) {
+					search(page.getDoc());
 				}
 			} // if
 		} // for (links)
@@ -13,6 +13,9 @@ public interface Searchable {
 	static final int BRANCING_FACTOR = 8;
 	static final int BEAM_WIDTH = 3;
 	
+	// Children of a node sent through the pipeline at once, the goal is checked again between batches.
+	static final int CHILD_BATCH = 16;
+	
 	public void run();
 	
 	/**